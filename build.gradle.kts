@@ -44,11 +44,11 @@ project("heterogeneous-foreign-memory") {
 
     tasks {
         withType(JavaCompile::class.java) {
-            options.compilerArgs.addAll(arrayOf("--enable-preview"))
+            options.compilerArgs.addAll(arrayOf("--enable-preview", "--add-modules", "jdk.incubator.vector"))
         }
 
         withType<JavaExec> {
-            jvmArgs = listOf("--enable-preview")
+            jvmArgs = listOf("--enable-preview", "--add-modules", "jdk.incubator.vector")
         }
     }
 
@@ -56,3 +56,54 @@ project("heterogeneous-foreign-memory") {
         mainClass.set("JaggedSteppingWindowDemo")
     }
 }
+
+/*
+  The JMH benchmarks for `heterogeneous-foreign-memory/`. Unlike the single-file programs, these need a build tool
+  because of the JMH library and its annotation processor. Run them with:
+    * `./gradlew heterogeneous-foreign-memory:jmh:jmh`
+    * `./gradlew heterogeneous-foreign-memory:jmh:jmh -PjmhArgs="ScanBenchmark -p rows=1000,1000000"`
+
+  Report the memory footprint of each layout with:
+    * `./gradlew heterogeneous-foreign-memory:jmh:footprint`
+ */
+project("heterogeneous-foreign-memory:jmh") {
+
+    apply(plugin = "java")
+
+    repositories {
+        mavenCentral()
+    }
+
+    java {
+        toolchain {
+            languageVersion.set(JavaLanguageVersion.of(21))
+        }
+    }
+
+    dependencies {
+        implementation("org.openjdk.jmh:jmh-core:1.37")
+        annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+    }
+
+    tasks {
+        withType(JavaCompile::class.java) {
+            options.compilerArgs.addAll(arrayOf("--enable-preview"))
+        }
+
+        register<JavaExec>("jmh") {
+            description = "Runs the JMH benchmarks with the GC profiler."
+            classpath = project.the<SourceSetContainer>()["main"].runtimeClasspath
+            mainClass.set("org.openjdk.jmh.Main")
+            jvmArgs = listOf("--enable-preview")
+            val jmhArgs = project.findProperty("jmhArgs")?.toString()?.split(" ")?.filter { it.isNotBlank() } ?: listOf()
+            args = listOf("-prof", "gc") + jmhArgs
+        }
+
+        register<JavaExec>("footprint") {
+            description = "Reports the memory footprint of each layout."
+            classpath = project.the<SourceSetContainer>()["main"].runtimeClasspath
+            mainClass.set("dgroomes.jmh.Footprint")
+            jvmArgs = listOf("--enable-preview", "-Xmx24g")
+        }
+    }
+}
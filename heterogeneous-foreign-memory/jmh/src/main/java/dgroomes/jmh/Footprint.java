@@ -0,0 +1,70 @@
+package dgroomes.jmh;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.System.out;
+
+/**
+ * Report the memory footprint of each layout. This is not a JMH benchmark because JMH measures time, not space.
+ * <p>
+ * The footprint of the heap records is the growth in used heap after a full GC, so it includes the object headers, the
+ * {@link String}s and their {@code byte[]}s, and the {@link ArrayList}'s array of references. The footprint of
+ * the segments is just their size. This is approximate, but the differences are big enough that it doesn't matter.
+ */
+public class Footprint {
+
+    public static void main(String[] args) {
+        int[] rowCounts = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1_000, 1_000_000, 100_000_000};
+
+        out.printf("%12s %18s %18s %18s%n", "rows", "heap (B/row)", "jagged (B/row)", "fixed (B/row)");
+        for (int rows : rowCounts) {
+            long heapBytes = heapFootprint(rows);
+
+            var source = Rows.Source.generate(rows);
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment offsets = arena.allocateArray(ValueLayout.JAVA_LONG, rows);
+                long jaggedBytes = Rows.writeJagged(arena, source, offsets).byteSize();
+                long jaggedWithIndexBytes = jaggedBytes + offsets.byteSize();
+                long fixedWidthBytes = Rows.writeFixedWidth(arena, source).byteSize();
+
+                out.printf("%,12d %18.1f %8.1f (%.1f*) %18.1f%n", rows, (double) heapBytes / rows,
+                        (double) jaggedBytes / rows, (double) jaggedWithIndexBytes / rows, (double) fixedWidthBytes / rows);
+            }
+        }
+        out.println("* including the offset index that random access needs");
+    }
+
+    /**
+     * Measure the heap bytes retained by the heap records. A small table is lost in the noise of the rest of the heap,
+     * so small tables are built many times over and the total is divided back down.
+     */
+    private static long heapFootprint(int rows) {
+        int copies = Math.max(1, 1_000_000 / rows);
+        var tables = new ArrayList<List<Rows.ProgrammingLanguage>>(copies);
+
+        long before = usedHeapAfterGc();
+        for (int i = 0; i < copies; i++) {
+            // The source is garbage once the records are built but the records keep their own references to the names.
+            tables.add(Rows.writeHeap(Rows.Source.generate(rows)));
+        }
+        long after = usedHeapAfterGc();
+
+        // Keep the tables reachable until after the measurement.
+        if (tables.size() != copies) throw new IllegalStateException();
+        return (after - before) / copies;
+    }
+
+    private static long usedHeapAfterGc() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,88 @@
+package dgroomes.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long does it take to read a row by its row number in each layout? The jagged layout can't do this on its own, so
+ * it goes through an offset index like the one in JaggedSteppingWindowDemo. Each invocation reads a batch of random
+ * rows and the score is per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx24g"})
+@OperationsPerInvocation(RandomAccessBenchmark.BATCH)
+public class RandomAccessBenchmark {
+
+    static final int BATCH = 1_024;
+
+    @Param({"1000", "1000000", "100000000"})
+    public int rows;
+
+    private Arena arena;
+    private List<Rows.ProgrammingLanguage> heap;
+    private MemorySegment jagged;
+    private MemorySegment jaggedOffsets;
+    private MemorySegment fixedWidth;
+    private int[] rowNumbers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        arena = Arena.ofShared();
+        var source = Rows.Source.generate(rows);
+        heap = Rows.writeHeap(source);
+        jaggedOffsets = arena.allocateArray(ValueLayout.JAVA_LONG, rows);
+        jagged = Rows.writeJagged(arena, source, jaggedOffsets);
+        fixedWidth = Rows.writeFixedWidth(arena, source);
+
+        var random = new Random(0);
+        rowNumbers = new int[BATCH];
+        for (int i = 0; i < BATCH; i++) rowNumbers[i] = random.nextInt(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public long heap() {
+        long sum = 0;
+        for (int row : rowNumbers) {
+            var language = heap.get(row);
+            sum += language.id() + language.name().charAt(0);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long jagged() {
+        long sum = 0;
+        for (int row : rowNumbers) {
+            long offset = jaggedOffsets.getAtIndex(ValueLayout.JAVA_LONG, row);
+            sum += jagged.get(ValueLayout.JAVA_INT_UNALIGNED, offset + Rows.JAGGED_ID_OFFSET)
+                   + jagged.get(ValueLayout.JAVA_BYTE, offset + Rows.JAGGED_HEADER.byteSize());
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long fixedWidth() {
+        long sum = 0;
+        for (int row : rowNumbers) {
+            long offset = row * Rows.FIXED_WIDTH_ROW.byteSize();
+            sum += fixedWidth.get(ValueLayout.JAVA_INT, offset + Rows.FIXED_WIDTH_ID_OFFSET)
+                   + fixedWidth.get(ValueLayout.JAVA_BYTE, offset + Rows.FIXED_WIDTH_NAME_OFFSET);
+        }
+        return sum;
+    }
+}
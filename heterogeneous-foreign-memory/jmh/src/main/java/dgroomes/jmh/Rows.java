@@ -0,0 +1,117 @@
+package dgroomes.jmh;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The three ways of storing the "programming languages" table that the benchmarks compare, and the code to write each
+ * of them. The layouts are copied from the programs in {@code heterogeneous-foreign-memory/src} because those are
+ * single-file programs in the unnamed package and JMH benchmarks must be in a named package.
+ * <pre>
+ *     heap         An ArrayList of ProgrammingLanguage records. Each row is a record, a String and a byte[] on the heap.
+ *     jagged       The variable-width layout from JaggedSteppingWindowDemo: an (int id, short nameLength) header, the
+ *                  UTF-8 name and a null terminator, back to back in one segment.
+ *     fixed-width  A sequence of fixed-width 16-byte slots: an int id and a 12-byte null-terminated name.
+ * </pre>
+ */
+public final class Rows {
+
+    private Rows() {}
+
+    public record ProgrammingLanguage(int id, String name) {}
+
+    private static final String[] NAMES = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "OCaml", "Zig"};
+
+    // The jagged layout
+    public static final StructLayout JAGGED_HEADER = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    public static final long JAGGED_ID_OFFSET = JAGGED_HEADER.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    public static final long JAGGED_NAME_LENGTH_OFFSET = JAGGED_HEADER.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    // The fixed-width layout
+    public static final StructLayout FIXED_WIDTH_ROW = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    MemoryLayout.sequenceLayout(12, ValueLayout.JAVA_BYTE).withName("name"))
+            .withName("programmingLanguage");
+    public static final long FIXED_WIDTH_ID_OFFSET = FIXED_WIDTH_ROW.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    public static final long FIXED_WIDTH_NAME_OFFSET = FIXED_WIDTH_ROW.byteOffset(MemoryLayout.PathElement.groupElement("name"));
+
+    /**
+     * The source data that each layout is written from. The names are distinct {@link String} objects, like they would
+     * be if they had been read from a file or a socket, and they fit in the fixed-width name slot.
+     */
+    public record Source(int[] ids, String[] names) {
+
+        public static Source generate(int rows) {
+            int[] ids = new int[rows];
+            String[] names = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                ids[i] = i;
+                names[i] = NAMES[i % NAMES.length] + (i % 1_000);
+            }
+            return new Source(ids, names);
+        }
+
+        public int rows() {
+            return ids.length;
+        }
+    }
+
+    public static List<ProgrammingLanguage> writeHeap(Source source) {
+        var list = new ArrayList<ProgrammingLanguage>(source.rows());
+        for (int i = 0; i < source.rows(); i++) {
+            list.add(new ProgrammingLanguage(source.ids()[i], source.names()[i]));
+        }
+        return list;
+    }
+
+    public static long jaggedRowSize(long nameLength) {
+        return JAGGED_HEADER.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * Write the jagged layout. The names are encoded first so that the segment can be sized exactly, like the demos do.
+     *
+     * @param offsets if not null, the offset of each row is recorded here. This is the offset index from
+     *                JaggedSteppingWindowDemo, which random access needs.
+     */
+    public static MemorySegment writeJagged(Arena arena, Source source, MemorySegment offsets) {
+        byte[][] names = new byte[source.rows()][];
+        long totalBytes = 0;
+        for (int i = 0; i < source.rows(); i++) {
+            names[i] = source.names()[i].getBytes(StandardCharsets.UTF_8);
+            totalBytes += jaggedRowSize(names[i].length);
+        }
+
+        MemorySegment segment = arena.allocate(totalBytes);
+        long offset = 0;
+        for (int i = 0; i < source.rows(); i++) {
+            if (offsets != null) offsets.setAtIndex(ValueLayout.JAVA_LONG, i, offset);
+            byte[] name = names[i];
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset + JAGGED_ID_OFFSET, source.ids()[i]);
+            segment.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + JAGGED_NAME_LENGTH_OFFSET, (short) name.length);
+            MemorySegment.copy(name, 0, segment, ValueLayout.JAVA_BYTE, offset + JAGGED_HEADER.byteSize(), name.length);
+            segment.set(ValueLayout.JAVA_BYTE, offset + JAGGED_HEADER.byteSize() + name.length, (byte) 0);
+            offset += jaggedRowSize(name.length);
+        }
+        return segment;
+    }
+
+    public static MemorySegment writeFixedWidth(Arena arena, Source source) {
+        MemorySegment segment = arena.allocate(MemoryLayout.sequenceLayout(source.rows(), FIXED_WIDTH_ROW));
+        for (int i = 0; i < source.rows(); i++) {
+            long offset = i * FIXED_WIDTH_ROW.byteSize();
+            segment.set(ValueLayout.JAVA_INT, offset + FIXED_WIDTH_ID_OFFSET, source.ids()[i]);
+            segment.setUtf8String(offset + FIXED_WIDTH_NAME_OFFSET, source.names()[i]);
+        }
+        return segment;
+    }
+}
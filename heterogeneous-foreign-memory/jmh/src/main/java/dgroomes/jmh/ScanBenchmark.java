@@ -0,0 +1,81 @@
+package dgroomes.jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long does a sequential scan of the whole table take in each layout? The query is a filter and an aggregate:
+ * "sum the IDs of the languages whose name starts with 'J'".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx24g"})
+public class ScanBenchmark {
+
+    @Param({"1000", "1000000", "100000000"})
+    public int rows;
+
+    private Arena arena;
+    private List<Rows.ProgrammingLanguage> heap;
+    private MemorySegment jagged;
+    private MemorySegment fixedWidth;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // JMH doesn't promise that the setup and the benchmark run on the same thread, so the arena must be shared.
+        arena = Arena.ofShared();
+        var source = Rows.Source.generate(rows);
+        heap = Rows.writeHeap(source);
+        jagged = Rows.writeJagged(arena, source, null);
+        fixedWidth = Rows.writeFixedWidth(arena, source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public long heap() {
+        long sum = 0;
+        for (var language : heap) {
+            if (language.name().charAt(0) == 'J') sum += language.id();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long jagged() {
+        long sum = 0;
+        long end = jagged.byteSize();
+        for (long offset = 0; offset < end; ) {
+            short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + Rows.JAGGED_NAME_LENGTH_OFFSET);
+            if (jagged.get(ValueLayout.JAVA_BYTE, offset + Rows.JAGGED_HEADER.byteSize()) == 'J') {
+                sum += jagged.get(ValueLayout.JAVA_INT_UNALIGNED, offset + Rows.JAGGED_ID_OFFSET);
+            }
+            offset += Rows.jaggedRowSize(nameLength);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long fixedWidth() {
+        long sum = 0;
+        long end = fixedWidth.byteSize();
+        long stride = Rows.FIXED_WIDTH_ROW.byteSize();
+        for (long offset = 0; offset < end; offset += stride) {
+            if (fixedWidth.get(ValueLayout.JAVA_BYTE, offset + Rows.FIXED_WIDTH_NAME_OFFSET) == 'J') {
+                sum += fixedWidth.get(ValueLayout.JAVA_INT, offset + Rows.FIXED_WIDTH_ID_OFFSET);
+            }
+        }
+        return sum;
+    }
+}
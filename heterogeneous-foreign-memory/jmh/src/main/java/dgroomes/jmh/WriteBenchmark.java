@@ -0,0 +1,54 @@
+package dgroomes.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long does it take to write the whole table in each layout? Each invocation allocates its own storage: the heap
+ * records are garbage collected and the segments are freed when the arena closes. Run with the "gc" profiler to see
+ * the allocation rate of each.
+ * <p>
+ * The comparison is not quite like for like. The heap records just reference the source's existing {@link String}s,
+ * so the heap case does no encoding and no copying of the names. The segment cases encode each name to UTF-8 and copy
+ * the bytes. The jagged case also holds all the encoded names at once, so that it can size its segment exactly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xmx24g"})
+public class WriteBenchmark {
+
+    @Param({"1000", "1000000", "100000000"})
+    public int rows;
+
+    private Rows.Source source;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = Rows.Source.generate(rows);
+    }
+
+    @Benchmark
+    public Object heap() {
+        return Rows.writeHeap(source);
+    }
+
+    @Benchmark
+    public void jagged(Blackhole blackhole) {
+        try (Arena arena = Arena.ofConfined()) {
+            blackhole.consume(Rows.writeJagged(arena, source, null));
+        }
+    }
+
+    @Benchmark
+    public void fixedWidth(Blackhole blackhole) {
+        try (Arena arena = Arena.ofConfined()) {
+            blackhole.consume(Rows.writeFixedWidth(arena, source));
+        }
+    }
+}
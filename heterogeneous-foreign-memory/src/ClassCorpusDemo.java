@@ -0,0 +1,595 @@
+import java.io.IOException;
+import java.lang.foreign.*;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.LongSupplier;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that builds an off-heap corpus of every class on the classpath, with the names of
+ * their fields and methods, and then searches it.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 ClassCorpusDemo.java [regex] [glob]
+ * </pre>
+ * <p>
+ * The output is something like this (the classes and the numbers depend on the JDK):
+ * <pre>
+ *     Built a corpus of 27,697 classes (6,247,884 bytes) from 27,697 class files in 1,462 ms
+ *     Classes with more than 100 fields: 78 in 7.1 ms (16 bytes allocated)
+ *       java.lang.Character$UnicodeBlock (fields: 332, methods: 7)
+ *       ...
+ *     Classes with more than 300 methods: 12 in 2.8 ms (16 bytes allocated)
+ *       jdk.internal.misc.ScopedMemoryAccess (fields: 2, methods: 378)
+ *       ...
+ *     Classes with a name matching the regex 'concurrent\..*Map$': 5 in 3.3 ms (256 bytes allocated)
+ *       java.util.concurrent.ConcurrentHashMap (fields: 37, methods: 95)
+ *       ...
+ *     Field and method names matching the glob 'stat*': 554 in 15.5 ms (16 bytes allocated)
+ *       com.sun.crypto.provider.GHASH#state
+ *       ...
+ * </pre>
+ * <p>
+ * The few bytes allocated by each query are a constant (the lambda, the reused {@link Matcher}) and not per entry.
+ * <p>
+ * The classes come from the JDK's runtime image (the {@code jrt:/} file system) and from the entries of the
+ * application classpath. The class files are parsed directly instead of loading the classes and using reflection. That
+ * is much faster, it doesn't fill the metaspace with tens of thousands of classes, and it can't trigger class
+ * initialization or fail with linkage errors.
+ * <p>
+ * The corpus is one variable-width {@link MemorySegment} of "struct header + raw content" entries, in the same spirit
+ * as {@code JaggedSteppingWindowDemo}. Each class entry is laid out like this:
+ *
+ * <pre>
+ *     entrySize    (int)    The size of the whole entry, in bytes. This lets a scan skip to the next class.
+ *     fieldCount   (int)    The number of declared fields.
+ *     methodCount  (int)    The number of declared methods, including constructors and static initializers.
+ *     nameLength   (short)  The number of bytes in the class name.
+ *     name         (bytes)  The binary name of the class, like "java.lang.String".
+ *     fields       For each field, a short length followed by the bytes of the field name.
+ *     methods      For each method, a short length followed by the bytes of the method name.
+ * </pre>
+ * <p>
+ * The names are stored the way they are in the class file, which is "modified UTF-8". That is the same as UTF-8 for
+ * everything except the NUL character and characters outside the Basic Multilingual Plane, neither of which show up in
+ * practice. There are no null terminators because every name has a length.
+ * <p>
+ * The queries scan the corpus without allocating anything per entry:
+ * <ul>
+ *     <li>"More than N fields/methods" reads only the fixed-width header of each entry and skips the rest.</li>
+ *     <li>The regex search runs a single reused {@link Matcher} over a reused {@link CharSequence} view of each class name.
+ *     The view reads bytes straight out of the segment, so no {@link String} is created.</li>
+ *     <li>The glob search compares the glob to the bytes of each field and method name where they sit in the segment.</li>
+ * </ul>
+ */
+public class ClassCorpusDemo {
+
+    static final StructLayout HEADER = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("entrySize"),
+                    ValueLayout.JAVA_INT.withName("fieldCount"),
+                    ValueLayout.JAVA_INT.withName("methodCount"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("classInfo");
+    static final long ENTRY_SIZE_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("entrySize"));
+    static final long FIELD_COUNT_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("fieldCount"));
+    static final long METHOD_COUNT_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("methodCount"));
+    static final long NAME_LENGTH_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    // The length prefix of each field and method name
+    static final ValueLayout.OfShort MEMBER_NAME_LENGTH = ValueLayout.JAVA_SHORT_UNALIGNED;
+
+    enum Member {FIELDS, METHODS}
+
+    /**
+     * Receives the offset of each matching class entry.
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long entryOffset);
+    }
+
+    /**
+     * Receives the offset of each matching class entry and of the matching field or method name within it.
+     */
+    @FunctionalInterface
+    interface MemberConsumer {
+        void accept(long entryOffset, long memberOffset);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String regex = args.length > 0 ? args[0] : "concurrent\\..*Map$";
+        String glob = args.length > 1 ? args[1] : "stat*";
+        int limit = 5;
+
+        try (Arena arena = Arena.ofConfined()) {
+            long start = System.nanoTime();
+            var writer = new CorpusWriter(arena, 1 << 20);
+            int classFiles = loadJdkClasses(writer) + loadClasspathClasses(writer);
+            ClassCorpus corpus = writer.corpus();
+            long elapsed = System.nanoTime() - start;
+            out.printf("Built a corpus of %,d classes (%,d bytes) from %,d class files in %,.0f ms%n",
+                    corpus.classCount(), corpus.data().byteSize(), classFiles, elapsed / 1e6);
+
+            for (Member member : Member.values()) {
+                int n = member == Member.FIELDS ? 100 : 300;
+                var printer = new Printer(corpus, limit);
+                timed("Classes with more than %d %s".formatted(n, member.name().toLowerCase()),
+                        () -> corpus.forEachClassWithMoreThan(member, n, printer::add));
+                printer.print();
+            }
+
+            var printer = new Printer(corpus, limit);
+            var pattern = Pattern.compile(regex);
+            timed("Classes with a name matching the regex '%s'".formatted(regex),
+                    () -> corpus.forEachClassNameMatching(pattern, printer::add));
+            printer.print();
+
+            var memberPrinter = new MemberPrinter(corpus, limit);
+            var compiledGlob = new Glob(glob);
+            timed("Field and method names matching the glob '%s'".formatted(glob),
+                    () -> corpus.forEachMemberMatching(compiledGlob, memberPrinter::add));
+            memberPrinter.print();
+        }
+    }
+
+    /**
+     * Run the query a few times and report the best time. The allocation is measured over a whole run of the query, and
+     * it doesn't count the matches collected for printing.
+     */
+    private static void timed(String description, LongSupplier query) {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        long matches = 0;
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            matches = query.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        out.printf("%s: %,d in %.1f ms (%,d bytes allocated)%n", description, matches, best / 1e6, allocated);
+    }
+
+    /**
+     * Collects the first few matching classes so that they can be printed after the query is timed. It holds on to
+     * offsets, not strings, so that collecting doesn't allocate.
+     */
+    private static final class Printer {
+        private final ClassCorpus corpus;
+        private final long[] offsets;
+        private int size;
+
+        Printer(ClassCorpus corpus, int limit) {
+            this.corpus = corpus;
+            this.offsets = new long[limit];
+        }
+
+        void add(long entryOffset) {
+            if (size < offsets.length) offsets[size++] = entryOffset;
+        }
+
+        void print() {
+            for (int i = 0; i < size; i++) {
+                out.printf("  %s (fields: %d, methods: %d)%n", corpus.className(offsets[i]),
+                        corpus.fieldCount(offsets[i]), corpus.methodCount(offsets[i]));
+            }
+        }
+    }
+
+    private static final class MemberPrinter {
+        private final ClassCorpus corpus;
+        private final long[] entryOffsets;
+        private final long[] memberOffsets;
+        private int size;
+
+        MemberPrinter(ClassCorpus corpus, int limit) {
+            this.corpus = corpus;
+            this.entryOffsets = new long[limit];
+            this.memberOffsets = new long[limit];
+        }
+
+        void add(long entryOffset, long memberOffset) {
+            if (size < entryOffsets.length) {
+                entryOffsets[size] = entryOffset;
+                memberOffsets[size++] = memberOffset;
+            }
+        }
+
+        void print() {
+            for (int i = 0; i < size; i++) {
+                out.printf("  %s#%s%n", corpus.className(entryOffsets[i]), corpus.memberName(memberOffsets[i]));
+            }
+        }
+    }
+
+    /**
+     * Add every class in the JDK's runtime image to the corpus.
+     *
+     * @return the number of class files read
+     */
+    static int loadJdkClasses(CorpusWriter writer) throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        int count = 0;
+        try (Stream<Path> paths = Files.walk(jrt.getPath("/modules"))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (isClassFile(path.getFileName() == null ? "" : path.getFileName().toString())) {
+                    writer.addClass(Files.readAllBytes(path));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add every class in the directories and jar files of the application classpath to the corpus.
+     *
+     * @return the number of class files read
+     */
+    static int loadClasspathClasses(CorpusWriter writer) throws IOException {
+        int count = 0;
+        String classpath = System.getProperty("java.class.path");
+        if (classpath == null || classpath.isEmpty()) return 0;
+
+        for (String entry : classpath.split(java.io.File.pathSeparator)) {
+            Path path = Path.of(entry);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> paths = Files.walk(path)) {
+                    for (Path file : (Iterable<Path>) paths::iterator) {
+                        if (isClassFile(file.getFileName().toString())) {
+                            writer.addClass(Files.readAllBytes(file));
+                            count++;
+                        }
+                    }
+                }
+            } else if (entry.endsWith(".jar") && Files.isRegularFile(path)) {
+                try (var jar = new JarFile(path.toFile())) {
+                    var entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        var jarEntry = entries.nextElement();
+                        if (isClassFile(jarEntry.getName())) {
+                            try (var in = jar.getInputStream(jarEntry)) {
+                                writer.addClass(in.readAllBytes());
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isClassFile(String name) {
+        return name.endsWith(".class") && !name.endsWith("module-info.class") && !name.endsWith("package-info.class");
+    }
+
+    /**
+     * The corpus. Entries start at offset 0 and follow each other until the end of the data segment.
+     */
+    record ClassCorpus(MemorySegment data, int classCount) {
+
+        int fieldCount(long entryOffset) {
+            return data.get(ValueLayout.JAVA_INT_UNALIGNED, entryOffset + FIELD_COUNT_OFFSET);
+        }
+
+        int methodCount(long entryOffset) {
+            return data.get(ValueLayout.JAVA_INT_UNALIGNED, entryOffset + METHOD_COUNT_OFFSET);
+        }
+
+        int nameLength(long entryOffset) {
+            return Short.toUnsignedInt(data.get(ValueLayout.JAVA_SHORT_UNALIGNED, entryOffset + NAME_LENGTH_OFFSET));
+        }
+
+        String className(long entryOffset) {
+            return string(entryOffset + HEADER.byteSize(), nameLength(entryOffset));
+        }
+
+        /**
+         * Decode a field or method name, given the offset of its length prefix.
+         */
+        String memberName(long memberOffset) {
+            int length = Short.toUnsignedInt(data.get(MEMBER_NAME_LENGTH, memberOffset));
+            return string(memberOffset + MEMBER_NAME_LENGTH.byteSize(), length);
+        }
+
+        private String string(long offset, int length) {
+            byte[] bytes = new byte[length];
+            MemorySegment.copy(data, ValueLayout.JAVA_BYTE, offset, bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Find the classes that declare more than {@code n} fields or methods. This reads only the header of each entry.
+         *
+         * @return the number of matching classes
+         */
+        long forEachClassWithMoreThan(Member member, int n, EntryConsumer consumer) {
+            long countOffset = member == Member.FIELDS ? FIELD_COUNT_OFFSET : METHOD_COUNT_OFFSET;
+            long matches = 0;
+            for (long offset = 0; offset < data.byteSize(); ) {
+                if (data.get(ValueLayout.JAVA_INT_UNALIGNED, offset + countOffset) > n) {
+                    matches++;
+                    consumer.accept(offset);
+                }
+                offset += data.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ENTRY_SIZE_OFFSET);
+            }
+            return matches;
+        }
+
+        /**
+         * Find the classes whose name contains a match for the regex (see {@link Matcher#find()}).
+         *
+         * @return the number of matching classes
+         */
+        long forEachClassNameMatching(Pattern pattern, EntryConsumer consumer) {
+            var name = new SegmentCharSequence(data);
+            Matcher matcher = pattern.matcher(name);
+            long matches = 0;
+            for (long offset = 0; offset < data.byteSize(); ) {
+                name.reset(offset + HEADER.byteSize(), nameLength(offset));
+                if (matcher.reset().find()) {
+                    matches++;
+                    consumer.accept(offset);
+                }
+                offset += data.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ENTRY_SIZE_OFFSET);
+            }
+            return matches;
+        }
+
+        /**
+         * Find the field and method names that match the glob.
+         *
+         * @return the number of matching names
+         */
+        long forEachMemberMatching(Glob glob, MemberConsumer consumer) {
+            long matches = 0;
+            for (long offset = 0; offset < data.byteSize(); ) {
+                long end = offset + data.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ENTRY_SIZE_OFFSET);
+                long member = offset + HEADER.byteSize() + nameLength(offset);
+                while (member < end) {
+                    int length = Short.toUnsignedInt(data.get(MEMBER_NAME_LENGTH, member));
+                    long from = member + MEMBER_NAME_LENGTH.byteSize();
+                    if (glob.matches(data, from, from + length)) {
+                        matches++;
+                        consumer.accept(offset, member);
+                    }
+                    member = from + length;
+                }
+                offset = end;
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * A {@link CharSequence} view of a range of bytes in a segment. The view is reset to each name in turn, so that one
+     * instance serves a whole scan.
+     * <p>
+     * Each byte is one {@code char}. That is exact for ASCII, which covers virtually every class name. Names with
+     * other characters are still matched, but a multibyte character looks like several {@code char}s to the regex.
+     */
+    static final class SegmentCharSequence implements CharSequence {
+
+        private final MemorySegment segment;
+        private long offset;
+        private int length;
+
+        SegmentCharSequence(MemorySegment segment) {
+            this.segment = segment;
+        }
+
+        void reset(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (segment.get(ValueLayout.JAVA_BYTE, offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, bytes, 0, length);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * A glob over the bytes of a name: {@code *} matches any run of bytes (including none) and {@code ?} matches exactly
+     * one byte. This is the same greedy algorithm as the glob search in {@code JaggedSteppingWindowDemo}.
+     */
+    static final class Glob {
+
+        private final byte[] pattern;
+
+        Glob(String glob) {
+            this.pattern = glob.getBytes(StandardCharsets.UTF_8);
+        }
+
+        boolean matches(MemorySegment segment, long from, long to) {
+            int p = 0;
+            long n = from;
+            int starP = -1;
+            long starN = -1;
+            while (n < to) {
+                if (p < pattern.length) {
+                    byte pc = pattern[p];
+                    if (pc == '*') {
+                        starP = ++p;
+                        starN = n;
+                        continue;
+                    }
+                    if (pc == '?' || pc == segment.get(ValueLayout.JAVA_BYTE, n)) {
+                        p++;
+                        n++;
+                        continue;
+                    }
+                }
+                if (starP == -1) return false;
+                n = ++starN;
+                p = starP;
+            }
+            while (p < pattern.length && pattern[p] == '*') p++;
+            return p == pattern.length;
+        }
+    }
+
+    /**
+     * Parses class files and appends them to a growable corpus segment. The segment doubles when it is full. The old
+     * segment is not freed until the arena is closed.
+     */
+    static final class CorpusWriter {
+
+        private static final int CAFEBABE = 0xCAFEBABE;
+
+        private final SegmentAllocator allocator;
+        private MemorySegment segment;
+        private long offset;
+        private int classCount;
+
+        CorpusWriter(SegmentAllocator allocator, long initialCapacity) {
+            this.allocator = allocator;
+            this.segment = allocator.allocate(initialCapacity);
+        }
+
+        ClassCorpus corpus() {
+            return new ClassCorpus(segment.asSlice(0, offset), classCount);
+        }
+
+        /**
+         * Parse the class file and append an entry for it. Only the parts of the class file that lead to the class name
+         * and the field and method names are read. See the class file format in chapter 4 of the JVM specification
+         * (<a href="https://docs.oracle.com/javase/specs/jvms/se21/html/jvms-4.html">JVMS 4</a>).
+         */
+        void addClass(byte[] classFile) {
+            ByteBuffer buffer = ByteBuffer.wrap(classFile); // Class files are big-endian, which is the default.
+            if (buffer.getInt() != CAFEBABE) throw new IllegalArgumentException("Not a class file");
+            buffer.getShort(); // minor version
+            buffer.getShort(); // major version
+
+            // Record where each CONSTANT_Utf8 is, and what each CONSTANT_Class points to. Nothing is decoded.
+            int constantPoolCount = buffer.getShort() & 0xFFFF;
+            int[] utf8Positions = new int[constantPoolCount];
+            int[] classNameIndexes = new int[constantPoolCount];
+            for (int i = 1; i < constantPoolCount; i++) {
+                int tag = buffer.get();
+                switch (tag) {
+                    case 1 -> { // Utf8
+                        utf8Positions[i] = buffer.position();
+                        int length = buffer.getShort() & 0xFFFF;
+                        buffer.position(buffer.position() + length);
+                    }
+                    case 7 -> classNameIndexes[i] = buffer.getShort() & 0xFFFF; // Class
+                    case 8, 16, 19, 20 -> buffer.getShort(); // String, MethodType, Module, Package
+                    case 15 -> buffer.position(buffer.position() + 3); // MethodHandle
+                    case 3, 4, 9, 10, 11, 12, 17, 18 -> buffer.getInt(); // Integer, Float, refs, NameAndType, (Invoke)Dynamic
+                    case 5, 6 -> { // Long, Double take two constant pool entries
+                        buffer.getLong();
+                        i++;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown constant pool tag %d".formatted(tag));
+                }
+            }
+
+            buffer.getShort(); // access flags
+            int thisClass = buffer.getShort() & 0xFFFF;
+            buffer.getShort(); // super class
+            int interfaces = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + 2 * interfaces);
+
+            long entryOffset = offset;
+            offset += HEADER.byteSize();
+            int nameLength = appendUtf8(classFile, utf8Positions[classNameIndexes[thisClass]], false);
+            // Internal names use '/' as the package separator. Convert to the familiar binary name.
+            for (long i = entryOffset + HEADER.byteSize(); i < offset; i++) {
+                if (segment.get(ValueLayout.JAVA_BYTE, i) == '/') segment.set(ValueLayout.JAVA_BYTE, i, (byte) '.');
+            }
+
+            int fieldCount = appendMembers(buffer, classFile, utf8Positions);
+            int methodCount = appendMembers(buffer, classFile, utf8Positions);
+
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, entryOffset + ENTRY_SIZE_OFFSET, (int) (offset - entryOffset));
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, entryOffset + FIELD_COUNT_OFFSET, fieldCount);
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, entryOffset + METHOD_COUNT_OFFSET, methodCount);
+            segment.set(ValueLayout.JAVA_SHORT_UNALIGNED, entryOffset + NAME_LENGTH_OFFSET, (short) nameLength);
+            classCount++;
+        }
+
+        /**
+         * Append the names of a run of field_info or method_info structures. They have the same shape.
+         *
+         * @return the number of fields or methods
+         */
+        private int appendMembers(ByteBuffer buffer, byte[] classFile, int[] utf8Positions) {
+            int count = buffer.getShort() & 0xFFFF;
+            for (int i = 0; i < count; i++) {
+                buffer.getShort(); // access flags
+                int nameIndex = buffer.getShort() & 0xFFFF;
+                buffer.getShort(); // descriptor
+                int attributes = buffer.getShort() & 0xFFFF;
+                for (int a = 0; a < attributes; a++) {
+                    buffer.getShort(); // attribute name
+                    int attributeLength = buffer.getInt();
+                    buffer.position(buffer.position() + attributeLength);
+                }
+                appendUtf8(classFile, utf8Positions[nameIndex], true);
+            }
+            return count;
+        }
+
+        /**
+         * Copy the bytes of a CONSTANT_Utf8 into the corpus, optionally with a length prefix.
+         *
+         * @return the number of bytes
+         */
+        private int appendUtf8(byte[] classFile, int position, boolean withLength) {
+            int length = ((classFile[position] & 0xFF) << 8) | (classFile[position + 1] & 0xFF);
+            ensureCapacity(offset + MEMBER_NAME_LENGTH.byteSize() + length);
+            if (withLength) {
+                segment.set(MEMBER_NAME_LENGTH, offset, (short) length);
+                offset += MEMBER_NAME_LENGTH.byteSize();
+            }
+            MemorySegment.copy(classFile, position + 2, segment, ValueLayout.JAVA_BYTE, offset, length);
+            offset += length;
+            return length;
+        }
+
+        private void ensureCapacity(long capacity) {
+            if (capacity <= segment.byteSize()) return;
+            long newCapacity = segment.byteSize() * 2;
+            while (newCapacity < capacity) newCapacity *= 2;
+            MemorySegment grown = allocator.allocate(newCapacity);
+            MemorySegment.copy(segment, 0, grown, 0, offset);
+            segment = grown;
+        }
+    }
+}
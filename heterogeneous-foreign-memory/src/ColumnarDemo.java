@@ -0,0 +1,292 @@
+import java.lang.foreign.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that lays out the "programming languages" table from
+ * {@code JaggedSteppingWindowDemo} in columns instead of rows, and converts between the two layouts.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 ColumnarDemo.java
+ * </pre>
+ * <p>
+ * The program output is the following:
+ * <pre>
+ *     Converted 3 rows (28 bytes) from the jagged layout to the columnar layout.
+ *     ids:     [1, 2, 3]
+ *     offsets: [0, 1, 5, 7]
+ *     data:    "CJavaGo"
+ *     Row 1 -> ID: 2, Name: Java
+ *     Sum of the IDs: 6
+ *     Number of IDs in [2, 3]: 2
+ *     Converted back to the jagged layout. Identical to the original: true
+ * </pre>
+ * <p>
+ * The jagged layout interleaves each ID, name length and name. That's great for reading whole rows, but a query that
+ * only needs the IDs (like "sum the IDs" or "count the IDs in a range") still drags every name byte through the CPU
+ * cache. The columnar layout stores each column contiguously instead:
+ *
+ * <pre>
+ *     ids      A contiguous array of {@code int}s. The ID of row N is at index N.
+ *     offsets  A contiguous array of rowCount + 1 {@code int}s. The name of row N spans [offsets[N], offsets[N + 1]) in the data heap.
+ *     data     The UTF-8 bytes of all the names, back to back, with no terminators.
+ * </pre>
+ * <p>
+ * This is the same shape as the "variable-size binary" layout in the Apache Arrow columnar format
+ * (<a href="https://arrow.apache.org/docs/format/Columnar.html">Arrow Columnar Format</a>) including the 64-byte buffer
+ * alignment that the spec recommends. There are no nulls in the table, so there is no validity bitmap. An ID scan
+ * touches only the ID column, and the tight loop over a contiguous {@code int} array is the kind of loop that the JIT
+ * compiler is able to vectorize. You can compare an ID scan over the two layouts with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 ColumnarDemo.java benchmark
+ * </pre>
+ */
+public class ColumnarDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"));
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    // The Arrow spec recommends aligning (and padding) buffers to 64 bytes.
+    static final long BUFFER_ALIGNMENT = 64;
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment jagged = writeJagged(arena, PROGRAMMING_LANGUAGES);
+            Columns columns = Columns.fromJagged(arena, jagged);
+            out.printf("Converted %d rows (%d bytes) from the jagged layout to the columnar layout.%n", columns.rowCount(), jagged.byteSize());
+
+            out.printf("ids:     %s%n", toString(columns.ids(), columns.rowCount()));
+            out.printf("offsets: %s%n", toString(columns.offsets(), columns.rowCount() + 1));
+            out.printf("data:    \"%s\"%n", new String(columns.data().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8));
+
+            var name = new String(columns.name(1).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+            out.printf("Row 1 -> ID: %d, Name: %s%n", columns.id(1), name);
+
+            out.printf("Sum of the IDs: %d%n", columns.sumIds());
+            out.printf("Number of IDs in [2, 3]: %d%n", columns.countIdsBetween(2, 3));
+
+            MemorySegment roundTripped = columns.toJagged(arena);
+            boolean identical = roundTripped.byteSize() == jagged.byteSize() && roundTripped.mismatch(jagged) == -1;
+            out.printf("Converted back to the jagged layout. Identical to the original: %b%n", identical);
+        }
+    }
+
+    /**
+     * The programming languages table in the columnar layout.
+     *
+     * @param rowCount the number of rows
+     * @param ids      the ID column. {@code rowCount} {@code int}s.
+     * @param offsets  the name offsets column. {@code rowCount + 1} {@code int}s.
+     * @param data     the UTF-8 bytes of all the names
+     */
+    record Columns(long rowCount, MemorySegment ids, MemorySegment offsets, MemorySegment data) {
+
+        /**
+         * Convert a collection in the jagged layout to the columnar layout.
+         * <p>
+         * The first pass over the jagged rows counts the rows and name bytes so that each column can be allocated at its
+         * exact size. The second pass fills in the columns.
+         */
+        static Columns fromJagged(Arena arena, MemorySegment jagged) {
+            long rowCount = 0;
+            long dataByteSize = 0;
+            for (long offset = 0; offset < jagged.byteSize(); ) {
+                short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+                rowCount++;
+                dataByteSize += nameLength;
+                offset += jaggedRowSize(nameLength);
+            }
+            if (dataByteSize > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("The names are too large to address with int offsets.");
+
+            MemorySegment ids = arena.allocate(padded(rowCount * ValueLayout.JAVA_INT.byteSize()), BUFFER_ALIGNMENT);
+            MemorySegment offsets = arena.allocate(padded((rowCount + 1) * ValueLayout.JAVA_INT.byteSize()), BUFFER_ALIGNMENT);
+            MemorySegment data = arena.allocate(padded(dataByteSize), BUFFER_ALIGNMENT);
+
+            long row = 0;
+            int dataOffset = 0;
+            for (long offset = 0; offset < jagged.byteSize(); row++) {
+                short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+                ids.setAtIndex(ValueLayout.JAVA_INT, row, jagged.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET));
+                offsets.setAtIndex(ValueLayout.JAVA_INT, row, dataOffset);
+                MemorySegment.copy(jagged, offset + STRUCT.byteSize(), data, dataOffset, nameLength);
+                dataOffset += nameLength;
+                offset += jaggedRowSize(nameLength);
+            }
+            offsets.setAtIndex(ValueLayout.JAVA_INT, rowCount, dataOffset);
+
+            // The segments are padded out to the alignment. Slice off the padding so the columns have their logical size.
+            return new Columns(rowCount,
+                    ids.asSlice(0, rowCount * ValueLayout.JAVA_INT.byteSize()),
+                    offsets.asSlice(0, (rowCount + 1) * ValueLayout.JAVA_INT.byteSize()),
+                    data.asSlice(0, dataByteSize));
+        }
+
+        /**
+         * Convert back to the jagged layout.
+         */
+        MemorySegment toJagged(Arena arena) {
+            MemorySegment jagged = arena.allocate(rowCount * jaggedRowSize(0) + data.byteSize());
+            long offset = 0;
+            for (long row = 0; row < rowCount; row++) {
+                int nameOffset = offsets.getAtIndex(ValueLayout.JAVA_INT, row);
+                int nameLength = offsets.getAtIndex(ValueLayout.JAVA_INT, row + 1) - nameOffset;
+                if (nameLength > Short.MAX_VALUE)
+                    throw new RuntimeException("The string is too long to express its length as a short.");
+
+                jagged.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, ids.getAtIndex(ValueLayout.JAVA_INT, row));
+                jagged.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) nameLength);
+                MemorySegment.copy(data, nameOffset, jagged, offset + STRUCT.byteSize(), nameLength);
+                jagged.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + nameLength, (byte) 0);
+                offset += jaggedRowSize(nameLength);
+            }
+            return jagged;
+        }
+
+        int id(long row) {
+            return ids.getAtIndex(ValueLayout.JAVA_INT, row);
+        }
+
+        /**
+         * The UTF-8 bytes of the name of the given row, as a slice of the data heap.
+         */
+        MemorySegment name(long row) {
+            int start = offsets.getAtIndex(ValueLayout.JAVA_INT, row);
+            int end = offsets.getAtIndex(ValueLayout.JAVA_INT, row + 1);
+            return data.asSlice(start, end - start);
+        }
+
+        long sumIds() {
+            long sum = 0;
+            for (long i = 0; i < rowCount; i++) {
+                sum += ids.getAtIndex(ValueLayout.JAVA_INT, i);
+            }
+            return sum;
+        }
+
+        /**
+         * Count the IDs in the inclusive range [min, max]. The loop is branch-free so that the JIT compiler can vectorize it.
+         */
+        long countIdsBetween(int min, int max) {
+            long count = 0;
+            for (long i = 0; i < rowCount; i++) {
+                int id = ids.getAtIndex(ValueLayout.JAVA_INT, i);
+                count += (id >= min & id <= max) ? 1 : 0;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Write the programming languages in the jagged layout. See {@code JaggedSteppingWindowDemo} for a detailed
+     * explanation of the layout.
+     */
+    static MemorySegment writeJagged(Arena arena, List<ProgrammingLanguage> languages) {
+        byte[][] names = new byte[languages.size()][];
+        long totalBytesNeeded = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i] = languages.get(i).name.getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+            totalBytesNeeded += jaggedRowSize(names[i].length);
+        }
+
+        MemorySegment jagged = arena.allocate(totalBytesNeeded);
+        long offset = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            jagged.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, languages.get(i).id);
+            jagged.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) names[i].length);
+            MemorySegment.copy(names[i], 0, jagged, ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize(), names[i].length);
+            jagged.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + names[i].length, (byte) 0);
+            offset += jaggedRowSize(names[i].length);
+        }
+        return jagged;
+    }
+
+    static long jaggedRowSize(long nameLength) {
+        return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * Sum the IDs by stepping through the jagged rows. This is the baseline that the columnar ID scan is compared to.
+     */
+    static long sumJaggedIds(MemorySegment jagged) {
+        long sum = 0;
+        for (long offset = 0; offset < jagged.byteSize(); ) {
+            sum += jagged.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET);
+            offset += jaggedRowSize(jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET));
+        }
+        return sum;
+    }
+
+    private static long padded(long byteSize) {
+        return Math.max(BUFFER_ALIGNMENT, (byteSize + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT * BUFFER_ALIGNMENT);
+    }
+
+    private static String toString(MemorySegment ints, long count) {
+        var sb = new StringBuilder("[");
+        for (long i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(ints.getAtIndex(ValueLayout.JAVA_INT, i));
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * A quick-and-dirty benchmark of an ID scan ("sum the IDs") over the jagged layout versus the columnar layout. The
+     * best of several rounds is reported for each.
+     */
+    static void benchmark() {
+        int rows = 10_000_000;
+        int rounds = 5;
+        String[] names = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "OCaml"};
+
+        var languages = new ArrayList<ProgrammingLanguage>(rows);
+        for (int i = 0; i < rows; i++) {
+            languages.add(new ProgrammingLanguage(i, names[i % names.length]));
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment jagged = writeJagged(arena, languages);
+            Columns columns = Columns.fromJagged(arena, jagged);
+
+            out.printf("Benchmarking an ID scan over %,d rows. Reporting the best of %d rounds.%n", rows, rounds);
+            for (int layout = 0; layout < 2; layout++) {
+                long best = Long.MAX_VALUE;
+                long sum = 0;
+                for (int i = 0; i < rounds + 1; i++) { // +1 for a warm-up round
+                    long start = System.nanoTime();
+                    sum = layout == 0 ? sumJaggedIds(jagged) : columns.sumIds();
+                    long elapsed = System.nanoTime() - start;
+                    if (i > 0) best = Math.min(best, elapsed);
+                }
+                long bytesScanned = layout == 0 ? jagged.byteSize() : columns.ids().byteSize();
+                out.printf("%-8s sum=%d %,15.0f rows/s %,8.0f MiB/s%n", layout == 0 ? "jagged" : "columnar", sum,
+                        rows / (best / 1e9), bytesScanned / (best / 1e9) / (1024 * 1024));
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.lang.foreign.*;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that stores the "programming languages" collection from
+ * {@code JaggedSteppingWindowDemo} with compact row headers.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 CompactHeaderDemo.java [benchmark]
+ * </pre>
+ * <p>
+ * The program output is the following:
+ * <pre>
+ *     Wrote 3 rows in 13 bytes (the jagged layout takes 28 bytes).
+ *     02 01 43 02 04 4A 61 76 61 02 02 47 6F
+ *     ID: 1, Name: C
+ *     ID: 2, Name: Java
+ *     ID: 3, Name: Go
+ * </pre>
+ * <p>
+ * In the jagged layout, every row has a 6-byte header (a 4-byte ID and a 2-byte name length) and a null terminator. The
+ * terminator is redundant because the length is stored, and for short names the header costs more than the name. The
+ * compact layout writes each row like this instead:
+ *
+ * <pre>
+ *     idDelta     (varint)  The ID minus the ID of the previous row (the first row is relative to 0), ZigZag encoded.
+ *     nameLength  (varint)  The number of bytes in the name.
+ *     name        (bytes)   The UTF-8 bytes of the name, with no terminator.
+ * </pre>
+ * <p>
+ * The varints are LEB128 (<a href="https://en.wikipedia.org/wiki/LEB128">LEB128</a>): seven bits per byte, least
+ * significant group first, with the high bit set on every byte except the last. A value under 128 takes one byte. The
+ * IDs are mostly sequential so their deltas are small, and ZigZag encoding
+ * (<a href="https://protobuf.dev/programming-guides/encoding/#signed-ints">Protocol Buffers encoding</a>) keeps small
+ * negative deltas small too. For sequential IDs and names under 128 bytes the header is two bytes.
+ * <p>
+ * The catch is that a row can only be decoded after the rows before it, because its ID is relative to the previous ID.
+ * The jagged layout can already only be read front to back (without an offset index) so this is a smaller step than it
+ * sounds, but an offset index into the compact layout would have to record the ID of each indexed row too.
+ * <p>
+ * You can compare the footprint and the write and scan throughput against the jagged layout with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 CompactHeaderDemo.java benchmark
+ * </pre>
+ */
+public class CompactHeaderDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"));
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment compact = writeCompact(arena, PROGRAMMING_LANGUAGES);
+            MemorySegment jagged = writeJagged(arena, PROGRAMMING_LANGUAGES);
+            out.printf("Wrote %d rows in %d bytes (the jagged layout takes %d bytes).%n",
+                    PROGRAMMING_LANGUAGES.size(), compact.byteSize(), jagged.byteSize());
+
+            var hex = new StringBuilder();
+            for (byte b : compact.toArray(ValueLayout.JAVA_BYTE)) {
+                if (!hex.isEmpty()) hex.append(' ');
+                hex.append("%02X".formatted(b));
+            }
+            out.println(hex);
+
+            var cursor = new CompactCursor(compact);
+            while (cursor.next()) {
+                out.println("ID: " + cursor.id() + ", Name: " + cursor.nameAsString());
+            }
+        }
+    }
+
+    /**
+     * Write the programming languages in the compact layout. The first pass encodes the names and adds up the exact
+     * size, so that the segment can be allocated once.
+     */
+    static MemorySegment writeCompact(Arena arena, List<ProgrammingLanguage> languages) {
+        byte[][] names = new byte[languages.size()][];
+        long totalBytesNeeded = 0;
+        int previousId = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            var language = languages.get(i);
+            names[i] = language.name().getBytes(StandardCharsets.UTF_8);
+            totalBytesNeeded += varintSize(zigZag(language.id() - previousId)) + varintSize(names[i].length) + names[i].length;
+            previousId = language.id();
+        }
+
+        var writer = new CompactWriter(arena.allocate(totalBytesNeeded));
+        for (int i = 0; i < languages.size(); i++) {
+            writer.write(languages.get(i).id(), names[i]);
+        }
+        return writer.segment();
+    }
+
+    /**
+     * Writes rows in the compact layout, one after the other. The writer remembers the previous ID so that it can write
+     * the delta.
+     */
+    static final class CompactWriter {
+
+        private final MemorySegment segment;
+        private long offset;
+        private int previousId;
+
+        CompactWriter(MemorySegment segment) {
+            this.segment = segment;
+        }
+
+        void write(int id, byte[] name) {
+            offset = putVarint(segment, offset, zigZag(id - previousId));
+            offset = putVarint(segment, offset, name.length);
+            MemorySegment.copy(name, 0, segment, ValueLayout.JAVA_BYTE, offset, name.length);
+            offset += name.length;
+            previousId = id;
+        }
+
+        /**
+         * The rows written so far.
+         */
+        MemorySegment segment() {
+            return segment.asSlice(0, offset);
+        }
+    }
+
+    /**
+     * A cursor over rows in the compact layout. Call {@link #next()} to decode the header of the next row, and then read
+     * the row with the accessors. The cursor doesn't allocate.
+     */
+    static final class CompactCursor {
+
+        private static final ValueLayout.OfShort LITTLE_ENDIAN_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+        private final MemorySegment collection;
+        private long offset;
+        private int id;
+        private int nameLength;
+        private long nameOffset;
+
+        CompactCursor(MemorySegment collection) {
+            this.collection = collection;
+        }
+
+        /**
+         * Move to the next row. Returns false if there are no more rows.
+         */
+        boolean next() {
+            // Step over the name of the current row. For the first row, there is no name to step over.
+            offset = nameOffset + nameLength;
+            if (offset >= collection.byteSize()) return false;
+
+            // Fast path: read both varints at once when they are both a single byte. That's the common case of a small
+            // ID delta and a name under 128 bytes. Every row has at least two header bytes, so this read is in bounds.
+            short header = collection.get(LITTLE_ENDIAN_SHORT, offset);
+            if ((header & 0x8080) == 0) {
+                id += unZigZag(header & 0x7F);
+                nameLength = header >>> 8;
+                nameOffset = offset + 2;
+                return true;
+            }
+
+            long varint = getVarint(collection, offset);
+            id += unZigZag((int) varint);
+            offset += varint >>> 32;
+
+            varint = getVarint(collection, offset);
+            nameLength = (int) varint;
+            nameOffset = offset + (varint >>> 32);
+            return true;
+        }
+
+        int id() {
+            return id;
+        }
+
+        int nameLength() {
+            return nameLength;
+        }
+
+        long nameOffset() {
+            return nameOffset;
+        }
+
+        String nameAsString() {
+            byte[] bytes = new byte[nameLength];
+            MemorySegment.copy(collection, ValueLayout.JAVA_BYTE, nameOffset, bytes, 0, nameLength);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Write the value as an unsigned LEB128 varint. Returns the offset just past the varint.
+     */
+    static long putVarint(MemorySegment segment, long offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) value);
+        return offset;
+    }
+
+    /**
+     * Read an unsigned LEB128 varint. To avoid allocating, the value and the number of bytes that it took are packed
+     * into one {@code long}: the value is in the low 32 bits and the byte count is in the high 32 bits.
+     */
+    static long getVarint(MemorySegment segment, long offset) {
+        // Fast path: most varints are a single byte.
+        byte b = segment.get(ValueLayout.JAVA_BYTE, offset);
+        if (b >= 0) return (1L << 32) | b;
+
+        int value = b & 0x7F;
+        for (int i = 1; i < 5; i++) {
+            b = segment.get(ValueLayout.JAVA_BYTE, offset + i);
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) return ((long) (i + 1) << 32) | (value & 0xFFFF_FFFFL);
+        }
+        throw new IllegalStateException("Malformed varint at offset %d".formatted(offset));
+    }
+
+    static int varintSize(int value) {
+        // Each byte holds 7 bits. A value of 0 still takes one byte.
+        int bits = 32 - Integer.numberOfLeadingZeros(value | 1);
+        return (bits + 6) / 7;
+    }
+
+    /**
+     * Map signed integers to unsigned integers so that numbers with a small absolute value have a small encoding:
+     * 0 -> 0, -1 -> 1, 1 -> 2, -2 -> 3, and so on.
+     */
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write the programming languages in the jagged layout. See {@code JaggedSteppingWindowDemo} for a detailed
+     * explanation of the layout.
+     */
+    static MemorySegment writeJagged(Arena arena, List<ProgrammingLanguage> languages) {
+        byte[][] names = new byte[languages.size()][];
+        long totalBytesNeeded = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i] = languages.get(i).name().getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+            totalBytesNeeded += jaggedRowSize(names[i].length);
+        }
+
+        MemorySegment jagged = arena.allocate(totalBytesNeeded);
+        long offset = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            jagged.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, languages.get(i).id());
+            jagged.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) names[i].length);
+            MemorySegment.copy(names[i], 0, jagged, ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize(), names[i].length);
+            jagged.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + names[i].length, (byte) 0);
+            offset += jaggedRowSize(names[i].length);
+        }
+        return jagged;
+    }
+
+    static long jaggedRowSize(long nameLength) {
+        return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * Sum the IDs and the name lengths by stepping through the jagged rows.
+     */
+    static long scanJagged(MemorySegment jagged) {
+        long sum = 0;
+        for (long offset = 0; offset < jagged.byteSize(); ) {
+            short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+            sum += jagged.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET) + nameLength;
+            offset += jaggedRowSize(nameLength);
+        }
+        return sum;
+    }
+
+    /**
+     * Sum the IDs and the name lengths by decoding the compact rows.
+     */
+    static long scanCompact(MemorySegment compact) {
+        long sum = 0;
+        var cursor = new CompactCursor(compact);
+        while (cursor.next()) {
+            sum += cursor.id() + cursor.nameLength();
+        }
+        return sum;
+    }
+
+    /**
+     * A quick-and-dirty comparison of the footprint, the write throughput and the scan throughput ("sum the IDs and the
+     * name lengths") of the jagged layout versus the compact layout. The best of several rounds is reported for each.
+     */
+    static void benchmark() {
+        int rows = 10_000_000;
+        int rounds = 5;
+        String[] names = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "OCaml"};
+
+        var languages = new ArrayList<ProgrammingLanguage>(rows);
+        for (int i = 0; i < rows; i++) {
+            languages.add(new ProgrammingLanguage(i, names[i % names.length]));
+        }
+
+        out.printf("Benchmarking %,d rows. Reporting the best of %d rounds.%n", rows, rounds);
+        for (int layout = 0; layout < 2; layout++) {
+            long bestWrite = Long.MAX_VALUE;
+            long bestScan = Long.MAX_VALUE;
+            long byteSize = 0;
+            long sum = 0;
+            for (int i = 0; i < rounds + 1; i++) { // +1 for a warm-up round
+                try (Arena arena = Arena.ofConfined()) {
+                    long start = System.nanoTime();
+                    MemorySegment segment = layout == 0 ? writeJagged(arena, languages) : writeCompact(arena, languages);
+                    long write = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    sum = layout == 0 ? scanJagged(segment) : scanCompact(segment);
+                    long scan = System.nanoTime() - start;
+
+                    byteSize = segment.byteSize();
+                    if (i > 0) {
+                        bestWrite = Math.min(bestWrite, write);
+                        bestScan = Math.min(bestScan, scan);
+                    }
+                }
+            }
+            out.printf("%-8s %,12d bytes (%.2f bytes/row) write %,13.0f rows/s  scan %,13.0f rows/s  sum=%d%n",
+                    layout == 0 ? "jagged" : "compact", byteSize, (double) byteSize / rows,
+                    rows / (bestWrite / 1e9), rows / (bestScan / 1e9), sum);
+        }
+    }
+}
@@ -0,0 +1,431 @@
+import java.lang.foreign.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that stores the "programming languages" table from
+ * {@code JaggedSteppingWindowDemo} with its name column dictionary-encoded.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 DictionaryEncodingDemo.java [benchmark]
+ * </pre>
+ * <p>
+ * The program output is the following:
+ * <pre>
+ *     Wrote 6 rows (48 bytes) and 3 distinct names (7 bytes of names).
+ *     ID: 1, Name code: 0, Name: C
+ *     ID: 2, Name code: 1, Name: Java
+ *     ID: 3, Name code: 2, Name: Go
+ *     ID: 4, Name code: 1, Name: Java
+ *     ID: 5, Name code: 1, Name: Java
+ *     ID: 6, Name code: 0, Name: C
+ *     Rows named 'Java': 3
+ *     Rows named 'Rust': 0
+ * </pre>
+ * <p>
+ * The jagged layout stores every occurrence of a name in full. When a column has only a few distinct values, like the
+ * names of programming languages, most of those bytes are repeats. Dictionary encoding stores each distinct name once,
+ * in a {@link StringDictionary}, and gives it an {@code int} code. The rows store only the code, so every row is the same
+ * width and an equality filter on the name is an {@code int} comparison: look up the code of the name once, then
+ * compare codes. A name that isn't in the dictionary can't match any row, so that filter doesn't even need a scan.
+ * <p>
+ * The dictionary is entirely off-heap. The names are packed back to back in one segment, the offset of each name is in a
+ * second segment (indexed by code), and a hash table in a third segment maps the bytes of a name to its code. See
+ * {@link StringDictionary} for the details.
+ * <p>
+ * You can compare the footprint and the speed of an equality filter against the jagged layout with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 DictionaryEncodingDemo.java benchmark
+ * </pre>
+ */
+public class DictionaryEncodingDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"),
+            new ProgrammingLanguage(4, "Java"),
+            new ProgrammingLanguage(5, "Java"),
+            new ProgrammingLanguage(6, "C"));
+
+    // The dictionary-encoded row format. Every row is the same width, so the rows are addressed by index.
+    static final StructLayout ROW = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_INT.withName("nameCode"))
+            .withName("programmingLanguage");
+    static final long ROW_ID_OFFSET = ROW.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long ROW_NAME_CODE_OFFSET = ROW.byteOffset(MemoryLayout.PathElement.groupElement("nameCode"));
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            var dictionary = new StringDictionary(arena, 16);
+            MemorySegment rows = writeEncoded(arena, dictionary, PROGRAMMING_LANGUAGES);
+            out.printf("Wrote %d rows (%d bytes) and %d distinct names (%d bytes of names).%n",
+                    PROGRAMMING_LANGUAGES.size(), rows.byteSize(), dictionary.size(), dictionary.dataByteSize());
+
+            for (long i = 0; i < rows.byteSize() / ROW.byteSize(); i++) {
+                int id = rows.get(ValueLayout.JAVA_INT, i * ROW.byteSize() + ROW_ID_OFFSET);
+                int code = rows.get(ValueLayout.JAVA_INT, i * ROW.byteSize() + ROW_NAME_CODE_OFFSET);
+                out.printf("ID: %d, Name code: %d, Name: %s%n", id, code, dictionary.decode(code));
+            }
+
+            for (String name : List.of("Java", "Rust")) {
+                out.printf("Rows named '%s': %d%n", name, countNameEquals(rows, dictionary, name));
+            }
+        }
+    }
+
+    /**
+     * Write the programming languages as dictionary-encoded rows. Names that are new to the dictionary are added to it.
+     */
+    static MemorySegment writeEncoded(Arena arena, StringDictionary dictionary, List<ProgrammingLanguage> languages) {
+        MemorySegment rows = arena.allocate(MemoryLayout.sequenceLayout(languages.size(), ROW));
+        for (int i = 0; i < languages.size(); i++) {
+            var language = languages.get(i);
+            rows.set(ValueLayout.JAVA_INT, i * ROW.byteSize() + ROW_ID_OFFSET, language.id());
+            rows.set(ValueLayout.JAVA_INT, i * ROW.byteSize() + ROW_NAME_CODE_OFFSET, dictionary.encode(language.name()));
+        }
+        return rows;
+    }
+
+    /**
+     * Count the rows with the given name. The name is looked up in the dictionary once, and after that the scan only
+     * compares {@code int}s.
+     */
+    static long countNameEquals(MemorySegment rows, StringDictionary dictionary, String name) {
+        int code = dictionary.codeOf(name);
+        if (code == -1) return 0;
+
+        long count = 0;
+        for (long offset = 0; offset < rows.byteSize(); offset += ROW.byteSize()) {
+            count += rows.get(ValueLayout.JAVA_INT, offset + ROW_NAME_CODE_OFFSET) == code ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * An off-heap dictionary of strings. It maps each distinct UTF-8 byte sequence to an {@code int} code, and back.
+     * Codes are handed out in order, starting from 0.
+     * <p>
+     * The dictionary is made of three segments:
+     * <pre>
+     *     data     The UTF-8 bytes of each string, back to back, in code order.
+     *     offsets  A {@code long} per code, plus one. The bytes for code N span [offsets[N], offsets[N + 1]) in data.
+     *     slots    An open-addressing hash table. Each slot is a {@code long}: the hash of the string in the high 32 bits,
+     *              and the code plus one in the low 32 bits. A zero slot is empty.
+     * </pre>
+     * <p>
+     * The hash table is probed linearly, just like the {@code IdHashIndex} in {@code JaggedSteppingWindowDemo}. Keeping
+     * the full hash in the slot means that a probe only compares bytes when the hashes match, and that the table can be
+     * grown without rehashing any strings. The segments grow by doubling. The old segments are not freed until the arena
+     * is closed.
+     */
+    static final class StringDictionary {
+
+        private static final long EMPTY = 0;
+        private static final float MAX_LOAD_FACTOR = 0.5f;
+
+        private final SegmentAllocator allocator;
+        private MemorySegment data;
+        private MemorySegment offsets;
+        private MemorySegment slots;
+        private long mask;
+        private int size;
+
+        StringDictionary(SegmentAllocator allocator, int expectedSize) {
+            this.allocator = allocator;
+            this.data = allocator.allocate(Math.max(expectedSize, 1) * 8L);
+            this.offsets = allocator.allocateArray(ValueLayout.JAVA_LONG, Math.max(expectedSize, 1) + 1L);
+            long capacity = 16;
+            while (capacity * MAX_LOAD_FACTOR < expectedSize) capacity *= 2;
+            allocateSlots(capacity);
+        }
+
+        /**
+         * Get the code for the string, adding it to the dictionary if it is new.
+         */
+        int encode(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            return encode(MemorySegment.ofArray(bytes), 0, bytes.length);
+        }
+
+        /**
+         * Get the code for the bytes in [keyOffset, keyOffset + keyLength) of the key segment, adding them to the
+         * dictionary if they are new.
+         */
+        int encode(MemorySegment key, long keyOffset, long keyLength) {
+            int hash = hash(key, keyOffset, keyLength);
+            long slot = find(key, keyOffset, keyLength, hash);
+            long entry = slots.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if (entry != EMPTY) return (int) (entry & 0xFFFF_FFFFL) - 1;
+
+            if (size == Integer.MAX_VALUE - 1)
+                throw new IllegalStateException("The dictionary is full.");
+            int code = size;
+            append(key, keyOffset, keyLength);
+            if (size > (mask + 1) * MAX_LOAD_FACTOR) {
+                resize();
+                slot = find(key, keyOffset, keyLength, hash);
+            }
+            slots.setAtIndex(ValueLayout.JAVA_LONG, slot, pack(hash, code));
+            return code;
+        }
+
+        /**
+         * Find the code for the string, or -1 if the string is not in the dictionary.
+         */
+        int codeOf(String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            return codeOf(MemorySegment.ofArray(bytes), 0, bytes.length);
+        }
+
+        /**
+         * Find the code for the bytes in [keyOffset, keyOffset + keyLength) of the key segment, or -1 if they are not in
+         * the dictionary. This doesn't allocate.
+         */
+        int codeOf(MemorySegment key, long keyOffset, long keyLength) {
+            long entry = slots.getAtIndex(ValueLayout.JAVA_LONG, find(key, keyOffset, keyLength, hash(key, keyOffset, keyLength)));
+            return (int) (entry & 0xFFFF_FFFFL) - 1;
+        }
+
+        /**
+         * The UTF-8 bytes for the code, as a slice of the dictionary's data segment.
+         */
+        MemorySegment bytes(int code) {
+            long start = start(code);
+            return data.asSlice(start, end(code) - start);
+        }
+
+        String decode(int code) {
+            return new String(bytes(code).toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * The number of bytes of string data in the dictionary.
+         */
+        long dataByteSize() {
+            return start(size);
+        }
+
+        /**
+         * The number of bytes that the dictionary takes up, including the unused capacity of its segments.
+         */
+        long byteSize() {
+            return data.byteSize() + offsets.byteSize() + slots.byteSize();
+        }
+
+        private long start(int code) {
+            return offsets.getAtIndex(ValueLayout.JAVA_LONG, code);
+        }
+
+        private long end(int code) {
+            return offsets.getAtIndex(ValueLayout.JAVA_LONG, code + 1);
+        }
+
+        /**
+         * Probe for the key. Returns the slot that holds the key, or the empty slot where the key would go.
+         */
+        private long find(MemorySegment key, long keyOffset, long keyLength, int hash) {
+            long slot = spread(hash) & mask;
+            while (true) {
+                long entry = slots.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                if (entry == EMPTY) return slot;
+                if ((int) (entry >>> 32) == hash) {
+                    int code = (int) (entry & 0xFFFF_FFFFL) - 1;
+                    long start = start(code);
+                    if (MemorySegment.mismatch(data, start, end(code), key, keyOffset, keyOffset + keyLength) == -1) {
+                        return slot;
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void append(MemorySegment key, long keyOffset, long keyLength) {
+            long start = start(size);
+            if (start + keyLength > data.byteSize()) {
+                long newCapacity = data.byteSize() * 2;
+                while (newCapacity < start + keyLength) newCapacity *= 2;
+                MemorySegment grown = allocator.allocate(newCapacity);
+                MemorySegment.copy(data, 0, grown, 0, start);
+                data = grown;
+            }
+            if (size + 2L > offsets.byteSize() / ValueLayout.JAVA_LONG.byteSize()) {
+                MemorySegment grown = allocator.allocate(offsets.byteSize() * 2, ValueLayout.JAVA_LONG.byteAlignment());
+                MemorySegment.copy(offsets, 0, grown, 0, offsets.byteSize());
+                offsets = grown;
+            }
+            MemorySegment.copy(key, keyOffset, data, start, keyLength);
+            size++;
+            offsets.setAtIndex(ValueLayout.JAVA_LONG, size, start + keyLength);
+        }
+
+        private void resize() {
+            MemorySegment oldSlots = slots;
+            long oldCapacity = mask + 1;
+            allocateSlots(oldCapacity * 2);
+            for (long i = 0; i < oldCapacity; i++) {
+                long entry = oldSlots.getAtIndex(ValueLayout.JAVA_LONG, i);
+                if (entry == EMPTY) continue;
+                // The hash is in the slot, so the strings don't need to be hashed again.
+                long slot = spread((int) (entry >>> 32)) & mask;
+                while (slots.getAtIndex(ValueLayout.JAVA_LONG, slot) != EMPTY) slot = (slot + 1) & mask;
+                slots.setAtIndex(ValueLayout.JAVA_LONG, slot, entry);
+            }
+        }
+
+        private void allocateSlots(long capacity) {
+            // Segments allocated by an arena are zeroed, so every slot starts out empty.
+            slots = allocator.allocateArray(ValueLayout.JAVA_LONG, capacity);
+            mask = capacity - 1;
+        }
+
+        private static long pack(int hash, int code) {
+            return ((long) hash << 32) | (code + 1L);
+        }
+
+        /**
+         * Hash the bytes with FNV-1a (<a href="http://www.isthe.com/chongo/tech/comp/fnv/">FNV</a>).
+         */
+        private static int hash(MemorySegment key, long keyOffset, long keyLength) {
+            int h = 0x811C9DC5;
+            for (long i = keyOffset; i < keyOffset + keyLength; i++) {
+                h ^= key.get(ValueLayout.JAVA_BYTE, i);
+                h *= 0x01000193;
+            }
+            return h;
+        }
+
+        /**
+         * Mix the bits of the hash before using it to pick a slot. FNV-1a is weak in its low bits, which are the ones
+         * the mask keeps. This is the finalizer step of MurmurHash3.
+         */
+        private static long spread(int hash) {
+            int h = hash;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h & 0xFFFF_FFFFL;
+        }
+    }
+
+    /**
+     * Write the programming languages in the jagged layout. See {@code JaggedSteppingWindowDemo} for a detailed
+     * explanation of the layout.
+     */
+    static MemorySegment writeJagged(Arena arena, List<ProgrammingLanguage> languages) {
+        byte[][] names = new byte[languages.size()][];
+        long totalBytesNeeded = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i] = languages.get(i).name().getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+            totalBytesNeeded += jaggedRowSize(names[i].length);
+        }
+
+        MemorySegment jagged = arena.allocate(totalBytesNeeded);
+        long offset = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            jagged.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, languages.get(i).id());
+            jagged.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) names[i].length);
+            MemorySegment.copy(names[i], 0, jagged, ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize(), names[i].length);
+            jagged.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + names[i].length, (byte) 0);
+            offset += jaggedRowSize(names[i].length);
+        }
+        return jagged;
+    }
+
+    static long jaggedRowSize(long nameLength) {
+        return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * Count the rows with the given name by comparing name bytes in the jagged layout. This is the baseline that the
+     * dictionary-encoded filter is compared to.
+     */
+    static long countJaggedNameEquals(MemorySegment jagged, String name) {
+        MemorySegment key = MemorySegment.ofArray(name.getBytes(StandardCharsets.UTF_8));
+        long count = 0;
+        for (long offset = 0; offset < jagged.byteSize(); ) {
+            short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+            long nameOffset = offset + STRUCT.byteSize();
+            if (nameLength == key.byteSize()
+                && MemorySegment.mismatch(jagged, nameOffset, nameOffset + nameLength, key, 0, nameLength) == -1) {
+                count++;
+            }
+            offset += jaggedRowSize(nameLength);
+        }
+        return count;
+    }
+
+    /**
+     * A quick-and-dirty comparison of the footprint and the speed of an equality filter ("count the rows named Java")
+     * over the jagged layout versus the dictionary-encoded layout. The best of several rounds is reported for each.
+     */
+    static void benchmark() {
+        int rows = 10_000_000;
+        int rounds = 5;
+        String[] names = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "OCaml"};
+
+        var languages = new ArrayList<ProgrammingLanguage>(rows);
+        for (int i = 0; i < rows; i++) {
+            languages.add(new ProgrammingLanguage(i, names[i % names.length]));
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            long start = System.nanoTime();
+            MemorySegment jagged = writeJagged(arena, languages);
+            long jaggedWrite = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            var dictionary = new StringDictionary(arena, 16);
+            MemorySegment encoded = writeEncoded(arena, dictionary, languages);
+            long encodedWrite = System.nanoTime() - start;
+
+            out.printf("%,d rows with %d distinct names.%n", rows, dictionary.size());
+            out.printf("%-10s %,13d bytes (written in %,.0f ms)%n", "jagged", jagged.byteSize(), jaggedWrite / 1e6);
+            out.printf("%-10s %,13d bytes (written in %,.0f ms) = %,d bytes of rows + %,d bytes of dictionary%n", "encoded",
+                    encoded.byteSize() + dictionary.byteSize(), encodedWrite / 1e6, encoded.byteSize(), dictionary.byteSize());
+
+            out.printf("Benchmarking a filter for the rows named 'Java'. Reporting the best of %d rounds.%n", rounds);
+            for (int layout = 0; layout < 2; layout++) {
+                long best = Long.MAX_VALUE;
+                long count = 0;
+                for (int i = 0; i < rounds + 1; i++) { // +1 for a warm-up round
+                    start = System.nanoTime();
+                    count = layout == 0 ? countJaggedNameEquals(jagged, "Java") : countNameEquals(encoded, dictionary, "Java");
+                    long elapsed = System.nanoTime() - start;
+                    if (i > 0) best = Math.min(best, elapsed);
+                }
+                out.printf("%-10s count=%d %,15.0f rows/s%n", layout == 0 ? "jagged" : "encoded", count, rows / (best / 1e9));
+            }
+        }
+    }
+}
@@ -4,7 +4,9 @@ import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 import static java.lang.System.out;
 
@@ -20,13 +22,29 @@ import static java.lang.System.out;
  * <p>
  * The program output is the following:
  * <pre>
- *     Allocated 28 bytes of memory.
  *     Writing entry ProgrammingLanguage[id=1, name=C] at offset 0
  *     Writing entry ProgrammingLanguage[id=2, name=Java] at offset 8
  *     Writing entry ProgrammingLanguage[id=3, name=Go] at offset 19
+ *     Wrote 28 bytes of memory.
  *     ID: 1, Name: C
  *     ID: 2, Name: Java
  *     ID: 3, Name: Go
+ *     Row 2 -> ID: 3, Name: Go
+ *     Row 1 -> ID: 2, Name: Java
+ *     Row 0 -> ID: 1, Name: C
+ *     ID 2 -> Row 1, Name: Java
+ *     ID 4 -> not found
+ *     exact "C" matches ID 1 at offset 0
+ *     exact "C" found 1 match(es)
+ *     prefix "J" matches ID 2 at offset 8
+ *     prefix "J" found 1 match(es)
+ *     suffix "o" matches ID 3 at offset 19
+ *     suffix "o" found 1 match(es)
+ *     substring "av" matches ID 2 at offset 8
+ *     substring "av" found 1 match(es)
+ *     glob "?o*" matches ID 3 at offset 19
+ *     glob "?o*" found 1 match(es)
+ *     Rebuilt the offset index by scanning the collection. It has 3 rows.
  * </pre>
  * <p>
  * Let's model a conceptual "table" of data. The table is called "programming_languages" and there are two
@@ -75,15 +93,30 @@ import static java.lang.System.out;
  * For each programming language, I repeat this process to build up the whole data set:
  *
  * <pre>
- *     1. Write the programming language ID (int) and nameLength (short) to a buffer {@link MemorySegment}. (Big/little endian handled automatically!)
- *     2. Copy the buffer {@link MemorySegment} to the larger {@link MemorySegment} with {@link MemorySegment#copy(MemorySegment, ValueLayout, long, Object, int, int)}.
- *     3. Step an "offset" counter forward by the size of the struct.
- *     4. Write the programming language name to the larger {@link MemorySegment} using {@link MemorySegment#setUtf8String(long, String)}.
- *     5. Step the "offset" counter forward by the size of the name + 1 for the size of the null terminator.
+ *     1. Encode the programming language name as UTF-8 directly into the larger {@link MemorySegment}, just past where the struct goes, and write a null terminator after it.
+ *     2. Write the programming language ID (int) and nameLength (short) directly into the larger {@link MemorySegment} at the current offset. (Big/little endian handled automatically!)
+ *     3. Step an "offset" counter forward by the size of the struct + the size of the name + 1 for the size of the null terminator.
  * </pre>
  * <p>
- * The offset increments in a "jagged" way. It's not a simple linear increment. The "buffer" {@MemorySegment} segment is
- * like a convenient ruler/guide/window.
+ * The offset increments in a "jagged" way. It's not a simple linear increment. The struct {@link MemoryLayout} is like a
+ * convenient ruler/guide/window: it tells us the offsets of the fields and the size of the header.
+ * <p>
+ * An earlier version of this program wrote the struct to a separate "buffer" {@link MemorySegment} and then copied it
+ * into place (and copied it back out again to read it). The rows are packed back to back, so the fields are usually
+ * not aligned, and the aligned {@link ValueLayout#JAVA_INT} refuses misaligned access. The unaligned layouts, like
+ * {@link ValueLayout#JAVA_INT_UNALIGNED}, let us skip the copies. The reading and writing, and the jagged offset
+ * arithmetic that goes with it, is wrapped up in {@link Cursor}. The segment is grown as rows are written by
+ * {@link Appender}, so the number and size of the rows don't need to be known up front. You can compare the
+ * approaches with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 JaggedSteppingWindowDemo.java benchmark
+ * </pre>
+ * <p>
+ * A consequence of the jagged layout is that the collection can only be read front to back. For random access by row
+ * number, the writer also records the offset of each row in a separate off-heap index. See {@link OffsetIndex}. For
+ * lookups by ID, the writer records the row number of each ID in an off-heap hash table. See {@link IdHashIndex}.
+ * Searching by name (exact, prefix, suffix, substring or glob) is done on the raw UTF-8 bytes. See {@link NameSearch}.
  */
 public class JaggedSteppingWindowDemo {
 
@@ -101,90 +134,802 @@ public class JaggedSteppingWindowDemo {
             new ProgrammingLanguage(3, "Go"));
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            CursorBenchmark.run();
+            return;
+        }
+
         try (Arena arena = Arena.ofConfined()) {
             new JaggedSteppingWindowDemo(arena).run();
         }
     }
 
+    // This is a convenient abstraction that models the "programming language" struct. It only models the ID and the
+    // length of the programming language name and not the actual name itself.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+
+    // The offsets of the fields within the struct.
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
     public void run() {
+        // Record where each row starts as we write it. This is what lets us jump straight to row N later instead of
+        // stepping through the N rows before it.
+        var offsetIndex = new OffsetIndex(arena, PROGRAMMING_LANGUAGES.size());
+
+        // Likewise, record the row number of each ID so that we can look up a row by its ID without a scan.
+        var idIndex = new IdHashIndex(arena, PROGRAMMING_LANGUAGES.size());
+
+        // Write the data. We don't need to know how many bytes the rows take up ahead of time. The appender grows the
+        // segment as needed.
+        //
+        // The appender (and the cursor that it uses) keeps track of the offset for us. Under the hood it's still manual
+        // offset arithmetic. I can't find a way to express the jagged layout with FFM APIs. The farthest I got was
+        // trying to define my own java.lang.foreign.MemoryLayout.PathElement but that interface is sealed. But at least
+        // the arithmetic is in one place.
+        var appender = new Appender(arena, 16);
+        for (var it : PROGRAMMING_LANGUAGES) {
+            out.printf("Writing entry %s at offset %d%n", it, appender.byteSize());
+            idIndex.put(it.id, offsetIndex.rowCount());
+            offsetIndex.append(appender.append(it.id, it.name));
+        }
+        MemorySegment collection = appender.segment();
+        out.printf("Wrote %d bytes of memory.%n", collection.byteSize());
+
+        // Read the data back out.
+        //
+        // We read from the beginning of the overall memory segment to the end.
+        var cursor = new Cursor(collection);
+        while (cursor.hasRow()) {
+            out.println("ID: " + cursor.id() + ", Name: " + cursor.nameAsString());
+            cursor.next();
+        }
+
+        // Read the data back out again, but this time in reverse order. This is random access, which the jagged layout
+        // can't do on its own. The offset index takes us directly to each row.
+        for (long i = offsetIndex.rowCount() - 1; i >= 0; i--) {
+            var row = offsetIndex.get(collection, i);
+            var name = new String(row.name().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+            out.printf("Row %d -> ID: %d, Name: %s%n", i, row.id(), name);
+        }
+
+        // Point lookups by ID. The hash index gives us the row number, and the offset index takes us to the row.
+        for (int id : new int[]{2, 4}) {
+            long rowIndex = idIndex.rowIndexOf(id);
+            if (rowIndex == -1) {
+                out.printf("ID %d -> not found%n", id);
+                continue;
+            }
+            var row = offsetIndex.get(collection, rowIndex);
+            var name = new String(row.name().toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+            out.printf("ID %d -> Row %d, Name: %s%n", id, rowIndex, name);
+        }
+
+        // Search the names. The searches compare the UTF-8 bytes in place, so they don't create a String for each row.
+        for (var search : List.of(
+                NameSearch.exact("C"),
+                NameSearch.prefix("J"),
+                NameSearch.suffix("o"),
+                NameSearch.substring("av"),
+                NameSearch.glob("?o*"))) {
+            long matches = search.forEachMatch(collection, (rowOffset, id) ->
+                    out.printf("%s matches ID %d at offset %d%n", search, id, rowOffset));
+            out.printf("%s found %d match(es)%n", search, matches);
+        }
+
+        // If all we have is the collection segment (for example, it was handed to us by some other code) then we can
+        // still rebuild the offset index with one scan.
+        var rebuiltIndex = OffsetIndex.scan(arena, collection);
+        out.printf("Rebuilt the offset index by scanning the collection. It has %d rows.%n", rebuiltIndex.rowCount());
+    }
+
+    /**
+     * A reusable read/write cursor over the jagged collection segment.
+     * <p>
+     * The cursor reads and writes the struct fields right where they sit in the collection segment. There is no
+     * copying through a separate buffer segment. The rows are packed back to back with no padding, so the fields are
+     * usually not aligned, which is why the cursor uses the unaligned value layouts. The cursor also owns the jagged
+     * offset arithmetic: {@link #next()} steps over the struct, the name, and the null terminator.
+     */
+    static final class Cursor {
+
+        private final MemorySegment collection;
+        private long offset;
+
+        Cursor(MemorySegment collection) {
+            this.collection = collection;
+        }
+
+        /**
+         * The number of bytes taken up by a row with a name of the given length (in UTF-8 bytes).
+         */
+        static long rowSize(long nameLength) {
+            return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+        }
+
+        /**
+         * The offset of the row that the cursor is on.
+         */
+        long offset() {
+            return offset;
+        }
+
+        /**
+         * Move the cursor to the row that starts at the given offset.
+         */
+        void seek(long offset) {
+            this.offset = offset;
+        }
+
+        boolean hasRow() {
+            return offset < collection.byteSize();
+        }
+
+        int id() {
+            return collection.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET);
+        }
+
+        short nameLength() {
+            return collection.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+        }
+
+        long nameOffset() {
+            return offset + STRUCT.byteSize();
+        }
+
+        /**
+         * The UTF-8 bytes of the name, as a slice of the collection segment. The slice does not include the null
+         * terminator.
+         */
+        MemorySegment name() {
+            return collection.asSlice(nameOffset(), nameLength());
+        }
 
-        // This is a convenient abstraction that models the "programming language" struct. It only models the ID and the
-        // length of the programming language name and not the actual name itself.
-        StructLayout struct;
-        {
-            struct = MemoryLayout.structLayout(
-                            ValueLayout.JAVA_INT.withName("id"),
-                            ValueLayout.JAVA_SHORT.withName("nameLength"))
-                    .withName("programmingLanguages");
+        /**
+         * Decode the name into a {@link String}. This allocates, so it is best kept out of hot loops.
+         */
+        String nameAsString() {
+            return collection.getUtf8String(nameOffset());
         }
 
-        // Var handles
-        VarHandle idHandle = struct.varHandle(MemoryLayout.PathElement.groupElement("id"));
-        VarHandle nameLengthHandle = struct.varHandle(MemoryLayout.PathElement.groupElement("nameLength"));
+        /**
+         * Step to the next row.
+         */
+        void next() {
+            offset += rowSize(nameLength());
+        }
 
-        // Compute how many bytes we need to allocate to put all the IDs, byte lengths, and names in the memory
-        // segment.
-        long totalBytesNeeded = PROGRAMMING_LANGUAGES.stream().mapToLong(it -> {
-            var nBytes = it.name.getBytes(StandardCharsets.UTF_8).length;
+        /**
+         * Write a row at the cursor's position and step past it. The name is encoded to UTF-8 straight into the
+         * collection segment, so there must be room for the worst case: {@link #maxRowSize(String)} bytes.
+         */
+        void write(int id, String name) {
+            long nameOffset = nameOffset();
+            long nameLength = encodeUtf8(name, collection, nameOffset);
 
             // For extra realism, let's do this data check that we would have to do in the real world.
-            if (nBytes > Short.MAX_VALUE)
+            if (nameLength > Short.MAX_VALUE)
                 throw new RuntimeException("The string is too long to express its length as a short.");
 
-            return struct.byteSize() + nBytes + 1; // The "+ 1" is for the null terminator
-        }).sum();
+            collection.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, id);
+            collection.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) nameLength);
+            collection.set(ValueLayout.JAVA_BYTE, nameOffset + nameLength, (byte) 0);
+            offset = nameOffset + nameLength + 1;
+        }
 
-        // Allocate the memory segments.
-        MemorySegment collection = arena.allocate(totalBytesNeeded);
-        MemorySegment buffer = arena.allocate(struct);
-        out.printf("Allocated %d bytes of memory.%n", totalBytesNeeded);
+        /**
+         * The most bytes that a row with the given name could take up. A {@code char} encodes to at most three bytes of
+         * UTF-8. (A supplementary character is a surrogate pair of two {@code char}s and it encodes to four bytes.)
+         */
+        static long maxRowSize(String name) {
+            return rowSize(3L * name.length());
+        }
 
-        // Write the data. Unfortunately, we need to manually keep track of the offset. I can't find a way to abstract
-        // the raw offset tracking behind FFM APIs. I hope I can be proved wrong.
-        //
-        // The farthest I got was trying to define my own java.lang.foreign.MemoryLayout.PathElement but that interface
-        // is sealed.
-        long offset = 0;
-        for (var it : PROGRAMMING_LANGUAGES) {
-            out.printf("Writing entry %s at offset %d%n", it, offset);
-            int nameBytesLength = it.name.getBytes(StandardCharsets.UTF_8).length;
+        /**
+         * Encode the string as UTF-8 into the segment at the given offset, without a null terminator. This is a
+         * hand-rolled encoder so that the bytes go straight into the segment instead of into an intermediate
+         * {@code byte[]} from {@link String#getBytes}. Like {@link String#getBytes}, an unpaired surrogate is encoded as
+         * '?'.
+         *
+         * @return the number of bytes written
+         */
+        static long encodeUtf8(String string, MemorySegment segment, long offset) {
+            long start = offset;
+            int length = string.length();
+            for (int i = 0; i < length; i++) {
+                char c = string.charAt(i);
+                if (c < 0x80) {
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) c);
+                } else if (c < 0x800) {
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0xC0 | (c >> 6)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0xF0 | (codePoint >> 18)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | (codePoint & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) '?');
+                } else {
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0xE0 | (c >> 12)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    segment.set(ValueLayout.JAVA_BYTE, offset++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+            return offset - start;
+        }
+
+        /**
+         * Write a row, with a name that is already encoded, at the cursor's position and step past it.
+         */
+        void write(int id, byte[] nameBytes) {
+            // For extra realism, let's do this data check that we would have to do in the real world.
+            if (nameBytes.length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
 
-            // Write to the struct buffer
-            {
-                idHandle.set(buffer, it.id);
-                nameLengthHandle.set(buffer, (short) nameBytesLength);
+            collection.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, id);
+            collection.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) nameBytes.length);
+            long nameOffset = nameOffset();
+            MemorySegment.copy(nameBytes, 0, collection, ValueLayout.JAVA_BYTE, nameOffset, nameBytes.length);
+            collection.set(ValueLayout.JAVA_BYTE, nameOffset + nameBytes.length, (byte) 0);
+            offset = nameOffset + nameBytes.length + 1;
+        }
+    }
+
+    /**
+     * An append-only writer for the jagged collection that doesn't need to know the number of rows, or how big they
+     * are, ahead of time. It accepts rows one at a time or from an {@link Iterator}, so it can ingest a feed of unknown
+     * length.
+     * <p>
+     * Each name is encoded to UTF-8 exactly once, straight into the segment (see {@link Cursor#write(int, String)}). To
+     * make sure there's room, the appender checks the worst case size of the row before writing it. When the segment
+     * might be too small, it doubles the segment: it allocates a new segment twice as big and copies the rows over.
+     * Like {@link OffsetIndex}, the old segment is left to the arena, and because of the doubling the wasted space is
+     * never more than the size of the final segment.
+     */
+    static final class Appender {
+
+        private final SegmentAllocator allocator;
+        private MemorySegment segment;
+        private Cursor cursor;
+
+        Appender(SegmentAllocator allocator, long initialCapacity) {
+            this.allocator = allocator;
+            this.segment = allocator.allocate(Math.max(initialCapacity, 1));
+            this.cursor = new Cursor(segment);
+        }
+
+        /**
+         * Append a row.
+         *
+         * @return the offset of the row
+         */
+        long append(int id, String name) {
+            long offset = cursor.offset();
+            ensureCapacity(offset + Cursor.maxRowSize(name));
+            cursor.write(id, name);
+            return offset;
+        }
+
+        /**
+         * Append all the rows.
+         *
+         * @return the number of rows appended
+         */
+        long appendAll(Iterator<ProgrammingLanguage> rows) {
+            long count = 0;
+            while (rows.hasNext()) {
+                var row = rows.next();
+                append(row.id, row.name);
+                count++;
             }
+            return count;
+        }
+
+        /**
+         * The number of bytes written so far. This is also the offset where the next row will go.
+         */
+        long byteSize() {
+            return cursor.offset();
+        }
 
-            // Copy the struct buffer to the larger collection
-            {
-                MemorySegment.copy(buffer, 0, collection, offset, struct.byteSize());
-                offset += struct.byteSize();
+        /**
+         * The rows written so far, as a slice of the appender's current segment. Appending more rows may move the
+         * rows to a new segment, so call this again after appending.
+         */
+        MemorySegment segment() {
+            return segment.asSlice(0, byteSize());
+        }
+
+        private void ensureCapacity(long capacity) {
+            if (capacity <= segment.byteSize()) return;
+
+            long newCapacity = segment.byteSize();
+            while (newCapacity < capacity) newCapacity *= 2;
+            MemorySegment grown = allocator.allocate(newCapacity);
+            long byteSize = byteSize();
+            MemorySegment.copy(segment, 0, grown, 0, byteSize);
+            segment = grown;
+            cursor = new Cursor(grown);
+            cursor.seek(byteSize);
+        }
+    }
+
+    /**
+     * A row read by way of the {@link OffsetIndex}. The name is a slice of the collection segment (not a copy) and it
+     * does not include the null terminator.
+     */
+    record Row(int id, MemorySegment name) {}
+
+    /**
+     * An off-heap index of the offset where each row starts in the jagged collection segment.
+     * <p>
+     * The rows are variable width, so on its own the collection can only be read front to back. To find row N, you have
+     * to step through every row before it. This index spends 8 bytes per row (a {@code long} in a second
+     * {@link MemorySegment}) to turn that into a constant-time lookup. The index is either filled in by the writer
+     * loop as it goes (see {@link #append(long)}) or rebuilt from an existing collection with a single scan (see
+     * {@link #scan(SegmentAllocator, MemorySegment)}).
+     */
+    static final class OffsetIndex {
+
+        private final SegmentAllocator allocator;
+        private MemorySegment offsets;
+        private long rowCount;
+
+        OffsetIndex(SegmentAllocator allocator, long expectedRowCount) {
+            this.allocator = allocator;
+            this.offsets = allocator.allocateArray(ValueLayout.JAVA_LONG, Math.max(expectedRowCount, 1));
+        }
+
+        /**
+         * Build an offset index by stepping through the collection once, from the beginning to the end.
+         */
+        static OffsetIndex scan(SegmentAllocator allocator, MemorySegment collection) {
+            var index = new OffsetIndex(allocator, 1_024);
+            var cursor = new Cursor(collection);
+            while (cursor.hasRow()) {
+                index.append(cursor.offset());
+                cursor.next();
             }
+            return index;
+        }
 
-            // Write the string
-            {
-                collection.setUtf8String(offset, it.name); // I can learn a lot more if I dive deeper into setUtf8String.
-                offset += nameBytesLength + 1; // +1 for the null terminator
+        /**
+         * Record the offset of the next row.
+         */
+        void append(long offset) {
+            long capacity = offsets.byteSize() / ValueLayout.JAVA_LONG.byteSize();
+            if (rowCount == capacity) {
+                // The index is full, so double it. The old segment is not freed until the arena is closed, but the
+                // doubling means that the wasted space is never more than the size of the final index.
+                MemorySegment grown = allocator.allocateArray(ValueLayout.JAVA_LONG, capacity * 2);
+                MemorySegment.copy(offsets, 0, grown, 0, offsets.byteSize());
+                offsets = grown;
             }
+            offsets.setAtIndex(ValueLayout.JAVA_LONG, rowCount++, offset);
         }
 
-        // Read the data back out.
-        //
-        // We read from the beginning of the overall memory segment to the end.
-        offset = 0;
-        while (offset < totalBytesNeeded) {
-            // Read the data into the struct buffer
-            MemorySegment.copy(collection, offset, buffer, 0, struct.byteSize());
+        long rowCount() {
+            return rowCount;
+        }
+
+        long offset(long rowIndex) {
+            Objects.checkIndex(rowIndex, rowCount);
+            return offsets.getAtIndex(ValueLayout.JAVA_LONG, rowIndex);
+        }
+
+        /**
+         * Read the given row of the collection that this index was built for.
+         */
+        Row get(MemorySegment collection, long rowIndex) {
+            var cursor = new Cursor(collection);
+            cursor.seek(offset(rowIndex));
+            return new Row(cursor.id(), cursor.name());
+        }
+    }
+
+    /**
+     * A search over the names in the jagged collection segment.
+     * <p>
+     * Decoding each name with {@link MemorySegment#getUtf8String(long)} creates a {@link String} for every row scanned.
+     * Instead, a search encodes its pattern to UTF-8 once up front and then compares it to the bytes of each name right
+     * where they sit in the collection, using the stored name length to know where the name ends. A scan allocates
+     * nothing per row.
+     * <p>
+     * The glob syntax is simple: {@code *} matches any run of characters (including none) and {@code ?} matches exactly
+     * one character. There is no escaping and there are no character classes.
+     */
+    static final class NameSearch {
+
+        enum Kind {EXACT, PREFIX, SUFFIX, SUBSTRING, GLOB}
+
+        /**
+         * Receives each matching row. This is a primitive-friendly alternative to something like
+         * {@code BiConsumer<Long, Integer>} which would box the arguments.
+         */
+        @FunctionalInterface
+        interface MatchConsumer {
+            void accept(long rowOffset, int id);
+        }
+
+        private final Kind kind;
+        private final String patternString;
+        private final MemorySegment pattern;
+        private final long patternLength;
+
+        private NameSearch(Kind kind, String patternString) {
+            this.kind = kind;
+            this.patternString = patternString;
+            this.pattern = MemorySegment.ofArray(patternString.getBytes(StandardCharsets.UTF_8));
+            this.patternLength = pattern.byteSize();
+        }
+
+        static NameSearch exact(String name) {
+            return new NameSearch(Kind.EXACT, name);
+        }
+
+        static NameSearch prefix(String prefix) {
+            return new NameSearch(Kind.PREFIX, prefix);
+        }
+
+        static NameSearch suffix(String suffix) {
+            return new NameSearch(Kind.SUFFIX, suffix);
+        }
+
+        static NameSearch substring(String substring) {
+            return new NameSearch(Kind.SUBSTRING, substring);
+        }
+
+        static NameSearch glob(String glob) {
+            return new NameSearch(Kind.GLOB, glob);
+        }
+
+        /**
+         * Scan the whole collection from the beginning to the end and pass each matching row to the consumer.
+         *
+         * @return the number of matching rows
+         */
+        long forEachMatch(MemorySegment collection, MatchConsumer consumer) {
+            long matches = 0;
+            var cursor = new Cursor(collection);
+            while (cursor.hasRow()) {
+                long nameOffset = cursor.nameOffset();
+                if (matches(collection, nameOffset, nameOffset + cursor.nameLength())) {
+                    matches++;
+                    consumer.accept(cursor.offset(), cursor.id());
+                }
+                cursor.next();
+            }
+            return matches;
+        }
+
+        /**
+         * Does the name that spans the given byte range of the segment match?
+         */
+        boolean matches(MemorySegment segment, long from, long to) {
+            long length = to - from;
+            return switch (kind) {
+                case EXACT -> length == patternLength && regionMatches(segment, from);
+                case PREFIX -> length >= patternLength && regionMatches(segment, from);
+                case SUFFIX -> length >= patternLength && regionMatches(segment, to - patternLength);
+                case SUBSTRING -> containsPattern(segment, from, to);
+                case GLOB -> globMatches(segment, from, to);
+            };
+        }
+
+        private boolean regionMatches(MemorySegment segment, long from) {
+            return MemorySegment.mismatch(segment, from, from + patternLength, pattern, 0, patternLength) == -1;
+        }
+
+        private boolean containsPattern(MemorySegment segment, long from, long to) {
+            if (patternLength == 0) return true;
+            byte first = pattern.get(ValueLayout.JAVA_BYTE, 0);
+            for (long i = from; i <= to - patternLength; i++) {
+                if (segment.get(ValueLayout.JAVA_BYTE, i) == first && regionMatches(segment, i)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Match the glob with the classic greedy algorithm: on a mismatch, backtrack to the most recent {@code *} and let
+         * it swallow one more character. This never needs more than the two saved positions, so it doesn't recurse or
+         * allocate.
+         */
+        private boolean globMatches(MemorySegment segment, long from, long to) {
+            long p = 0;
+            long n = from;
+            long starP = -1;
+            long starN = -1;
+            while (n < to) {
+                if (p < patternLength) {
+                    byte pc = pattern.get(ValueLayout.JAVA_BYTE, p);
+                    if (pc == '*') {
+                        starP = ++p;
+                        starN = n;
+                        continue;
+                    }
+                    if (pc == '?') {
+                        p++;
+                        n += utf8CharLength(segment.get(ValueLayout.JAVA_BYTE, n));
+                        continue;
+                    }
+                    if (pc == segment.get(ValueLayout.JAVA_BYTE, n)) {
+                        p++;
+                        n++;
+                        continue;
+                    }
+                }
+                if (starP == -1) return false;
+                starN += utf8CharLength(segment.get(ValueLayout.JAVA_BYTE, starN));
+                n = starN;
+                p = starP;
+            }
+            if (n > to) return false; // A '?' stepped over a truncated multibyte character.
+            while (p < patternLength && pattern.get(ValueLayout.JAVA_BYTE, p) == '*') p++;
+            return p == patternLength;
+        }
+
+        /**
+         * The number of bytes in the UTF-8 encoded character that starts with the given byte. This lets {@code ?} match
+         * a whole character, and not just one byte of it.
+         */
+        private static int utf8CharLength(byte leadByte) {
+            if ((leadByte & 0x80) == 0) return 1;
+            if ((leadByte & 0xE0) == 0xC0) return 2;
+            if ((leadByte & 0xF0) == 0xE0) return 3;
+            if ((leadByte & 0xF8) == 0xF0) return 4;
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return "%s \"%s\"".formatted(kind.name().toLowerCase(), patternString);
+        }
+    }
+
+    /**
+     * An off-heap hash index from a programming language ID to its row number.
+     * <p>
+     * This is an open-addressing hash table with linear probing. The slots are plain {@code long}s in a
+     * {@link MemorySegment}: the high 32 bits hold the ID and the low 32 bits hold the row number plus one. A slot value
+     * of zero means "empty" which is why the row number is stored plus one. There are no boxed {@link Integer} keys and
+     * no entry objects, so a lookup doesn't allocate anything and typically touches just one cache line.
+     * <p>
+     * The table doubles in size when it is half full. Like {@link OffsetIndex}, the old slots are left to the arena.
+     */
+    static final class IdHashIndex {
+
+        private static final long EMPTY = 0;
+        private static final float MAX_LOAD_FACTOR = 0.5f;
+
+        private final SegmentAllocator allocator;
+        private MemorySegment slots;
+        private long mask;
+        private long size;
+
+        IdHashIndex(SegmentAllocator allocator, long expectedSize) {
+            this.allocator = allocator;
+            allocateSlots(capacityFor(expectedSize));
+        }
+
+        /**
+         * Map the ID to the row number. If the ID is already in the index, its row number is replaced.
+         */
+        void put(int id, long rowIndex) {
+            if (rowIndex < 0 || rowIndex >= 0xFFFF_FFFFL)
+                throw new IllegalArgumentException("The row number %d does not fit in the index.".formatted(rowIndex));
+
+            if (size + 1 > (mask + 1) * MAX_LOAD_FACTOR) {
+                resize();
+            }
+            if (insert(slots, mask, pack(id, rowIndex))) size++;
+        }
 
-            var id = (int) idHandle.get(buffer);
-            short nameLength = (short) nameLengthHandle.get(buffer);
-            offset += struct.byteSize();
+        /**
+         * Find the row number for the ID, or -1 if the ID is not in the index.
+         */
+        long rowIndexOf(int id) {
+            long slot = hash(id) & mask;
+            while (true) {
+                long entry = slots.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                if (entry == EMPTY) return -1;
+                if ((int) (entry >>> 32) == id) return (entry & 0xFFFF_FFFFL) - 1;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        /**
+         * Insert the entry, probing linearly from its home slot. Returns true if the entry took an empty slot, or false
+         * if it replaced the entry of the same ID.
+         */
+        private static boolean insert(MemorySegment slots, long mask, long entry) {
+            int id = (int) (entry >>> 32);
+            long slot = hash(id) & mask;
+            while (true) {
+                long existing = slots.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                if (existing == EMPTY || (int) (existing >>> 32) == id) {
+                    slots.setAtIndex(ValueLayout.JAVA_LONG, slot, entry);
+                    return existing == EMPTY;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
 
+        private void resize() {
+            MemorySegment oldSlots = slots;
+            long oldCapacity = mask + 1;
+            allocateSlots(oldCapacity * 2);
+            for (long i = 0; i < oldCapacity; i++) {
+                long entry = oldSlots.getAtIndex(ValueLayout.JAVA_LONG, i);
+                if (entry != EMPTY) insert(slots, mask, entry);
+            }
+        }
+
+        private void allocateSlots(long capacity) {
+            // Segments allocated by an arena are zeroed, so every slot starts out empty.
+            slots = allocator.allocateArray(ValueLayout.JAVA_LONG, capacity);
+            mask = capacity - 1;
+        }
+
+        private static long capacityFor(long expectedSize) {
+            long capacity = 16;
+            while (capacity * MAX_LOAD_FACTOR < expectedSize) capacity *= 2;
+            return capacity;
+        }
+
+        private static long pack(int id, long rowIndex) {
+            return ((long) id << 32) | (rowIndex + 1);
+        }
+
+        /**
+         * Spread the bits of the ID. IDs are often sequential, and without mixing they would pile up in neighboring
+         * slots and make for long probe sequences. This is the finalizer step of MurmurHash3.
+         */
+        private static long hash(int id) {
+            int h = id;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h & 0xFFFF_FFFFL;
+        }
+    }
+
+    /**
+     * A quick-and-dirty benchmark that measures rows per second for writing and reading the collection with the
+     * {@link Cursor} versus the original approach of copying each struct through a separate "buffer" segment and
+     * accessing the fields with {@link VarHandle}s. The best of several rounds is reported for each.
+     */
+    static final class CursorBenchmark {
+
+        private static final int ROWS = 10_000_000;
+        private static final int ROUNDS = 5;
+        private static final String[] NAMES = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "OCaml"};
+
+        private static final VarHandle ID_HANDLE = STRUCT.varHandle(MemoryLayout.PathElement.groupElement("id"));
+        private static final VarHandle NAME_LENGTH_HANDLE = STRUCT.varHandle(MemoryLayout.PathElement.groupElement("nameLength"));
+
+        static void run() {
+            long totalBytesNeeded = 0;
+            for (int i = 0; i < ROWS; i++) {
+                totalBytesNeeded += Cursor.rowSize(NAMES[i % NAMES.length].getBytes(StandardCharsets.UTF_8).length);
+            }
 
-            String name = collection.getUtf8String(offset);
-            offset += nameLength + 1; // +1 for the null terminator
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment collection = arena.allocate(totalBytesNeeded);
+                MemorySegment buffer = arena.allocate(STRUCT);
+                out.printf("Benchmarking %,d rows (%,d bytes). Reporting the best of %d rounds.%n", ROWS, totalBytesNeeded, ROUNDS);
+
+                report("buffer copy write", () -> writeWithBuffer(collection, buffer));
+                report("cursor write", () -> writeWithCursor(collection));
+                report("two-pass write", CursorBenchmark::writeWithSizingPass);
+                report("appender write", CursorBenchmark::writeWithAppender);
+                report("buffer copy read", () -> readWithBuffer(collection, buffer));
+                report("cursor read", () -> readWithCursor(collection));
+            }
+        }
+
+        private static void report(String name, Runnable round) {
+            round.run(); // Warm up
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                round.run();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            out.printf("%-18s %,15.0f rows/s%n", name, ROWS / (best / 1e9));
+        }
+
+        private static void writeWithBuffer(MemorySegment collection, MemorySegment buffer) {
+            long offset = 0;
+            for (int i = 0; i < ROWS; i++) {
+                String name = NAMES[i % NAMES.length];
+                int nameBytesLength = name.getBytes(StandardCharsets.UTF_8).length;
+                ID_HANDLE.set(buffer, i);
+                NAME_LENGTH_HANDLE.set(buffer, (short) nameBytesLength);
+                MemorySegment.copy(buffer, 0, collection, offset, STRUCT.byteSize());
+                offset += STRUCT.byteSize();
+                collection.setUtf8String(offset, name);
+                offset += nameBytesLength + 1;
+            }
+        }
+
+        private static void writeWithCursor(MemorySegment collection) {
+            var cursor = new Cursor(collection);
+            for (int i = 0; i < ROWS; i++) {
+                cursor.write(i, NAMES[i % NAMES.length].getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Write the rows the way that the demo used to: a first pass encodes every name just to add up the size of the
+         * segment, and then a second pass encodes every name again to write it. Unlike the other write benchmarks, the
+         * segment is allocated fresh each time. This is the baseline for {@link #writeWithAppender()}.
+         */
+        private static void writeWithSizingPass() {
+            try (Arena arena = Arena.ofConfined()) {
+                long totalBytesNeeded = 0;
+                for (int i = 0; i < ROWS; i++) {
+                    totalBytesNeeded += Cursor.rowSize(NAMES[i % NAMES.length].getBytes(StandardCharsets.UTF_8).length);
+                }
+                var cursor = new Cursor(arena.allocate(totalBytesNeeded));
+                for (int i = 0; i < ROWS; i++) {
+                    cursor.write(i, NAMES[i % NAMES.length].getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        /**
+         * Append the rows as if they were coming from a feed of unknown length. The appender starts out small and grows
+         * as it goes.
+         */
+        private static void writeWithAppender() {
+            try (Arena arena = Arena.ofConfined()) {
+                var appender = new Appender(arena, 1_024);
+                for (int i = 0; i < ROWS; i++) {
+                    appender.append(i, NAMES[i % NAMES.length]);
+                }
+            }
+        }
+
+        private static void readWithBuffer(MemorySegment collection, MemorySegment buffer) {
+            long checksum = 0;
+            long offset = 0;
+            long end = collection.byteSize();
+            while (offset < end) {
+                MemorySegment.copy(collection, offset, buffer, 0, STRUCT.byteSize());
+                var id = (int) ID_HANDLE.get(buffer);
+                short nameLength = (short) NAME_LENGTH_HANDLE.get(buffer);
+                checksum += id + nameLength;
+                offset += STRUCT.byteSize() + nameLength + 1;
+            }
+            verify(checksum);
+        }
+
+        private static void readWithCursor(MemorySegment collection) {
+            long checksum = 0;
+            var cursor = new Cursor(collection);
+            while (cursor.hasRow()) {
+                checksum += cursor.id() + cursor.nameLength();
+                cursor.next();
+            }
+            verify(checksum);
+        }
 
-            out.println("ID: " + id + ", Name: " + name);
+        /**
+         * Use the checksum so that the JIT compiler can't throw away the reads.
+         */
+        private static void verify(long checksum) {
+            if (checksum == 0) throw new IllegalStateException("Expected a non-zero checksum");
         }
     }
 
@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.lang.foreign.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static java.lang.System.out;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * This is a single-file Java program that persists the "programming languages" collection from
+ * {@code JaggedSteppingWindowDemo} to a file, and then serves reads straight out of the memory-mapped file.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 MappedJaggedDemo.java [file]
+ * </pre>
+ * <p>
+ * If the file doesn't exist yet, the program writes it. Either way, it then opens the file and reads the rows. On the
+ * second run, the program skips straight to opening the file. The output of a second run is something like this:
+ * <pre>
+ *     Found an existing file '/tmp/programming-languages.jagged'. Skipping the write.
+ *     Opened '/tmp/programming-languages.jagged' (version 1, 3 rows, 28 bytes of data) in 0.210 ms
+ *     ID: 1, Name: C
+ *     ID: 2, Name: Java
+ *     ID: 3, Name: Go
+ * </pre>
+ * <p>
+ * A {@link MemorySegment} allocated by an {@link Arena} is gone when the program exits, and the data has to be built
+ * all over again on the next start. But a {@link MemorySegment} can also be backed by a file with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long, Arena)}. The rows are written in exactly the same jagged
+ * format as {@code JaggedSteppingWindowDemo}. The only addition is a small fixed-width header at the start of the file:
+ *
+ * <pre>
+ *     magic         (int)   Identifies the file as a jagged "programming languages" file.
+ *     version       (int)   The version of the format. Bump this if the row format ever changes.
+ *     rowCount      (long)  The number of rows.
+ *     dataByteSize  (long)  The number of bytes of row data that follow the header.
+ * </pre>
+ * <p>
+ * All values are in the platform's native byte order, so the file is not meant to be moved between machines with
+ * different endianness.
+ * <p>
+ * Opening the file is cheap. We check the header and slice the data out of the mapped segment. Nothing is decoded or
+ * copied, and the operating system pages the data in from the page cache as we touch it.
+ */
+public class MappedJaggedDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"));
+
+    // The row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    // The file header. Unlike the rows, the header is at the start of the file so its fields are aligned.
+    static final StructLayout HEADER = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("magic"),
+                    ValueLayout.JAVA_INT.withName("version"),
+                    ValueLayout.JAVA_LONG.withName("rowCount"),
+                    ValueLayout.JAVA_LONG.withName("dataByteSize"))
+            .withName("header");
+    static final long MAGIC_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("magic"));
+    static final long VERSION_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("version"));
+    static final long ROW_COUNT_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("rowCount"));
+    static final long DATA_BYTE_SIZE_OFFSET = HEADER.byteOffset(MemoryLayout.PathElement.groupElement("dataByteSize"));
+
+    static final int MAGIC = 0x4A414744; // "JAGD"
+    static final int VERSION = 1;
+
+    public static void main(String[] args) throws IOException {
+        Path file = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"), "programming-languages.jagged");
+
+        if (Files.exists(file)) {
+            out.printf("Found an existing file '%s'. Skipping the write.%n", file);
+        } else {
+            write(file, PROGRAMMING_LANGUAGES);
+            out.printf("Wrote %d rows to '%s'%n", PROGRAMMING_LANGUAGES.size(), file);
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            long start = System.nanoTime();
+            MappedCollection collection = MappedCollection.open(file, arena);
+            long elapsed = System.nanoTime() - start;
+            out.printf("Opened '%s' (version %d, %d rows, %d bytes of data) in %.3f ms%n",
+                    file, VERSION, collection.rowCount(), collection.data().byteSize(), elapsed / 1e6);
+
+            var cursor = new Cursor(collection.data());
+            while (cursor.hasRow()) {
+                out.println("ID: " + cursor.id() + ", Name: " + cursor.nameAsString());
+                cursor.next();
+            }
+        }
+    }
+
+    /**
+     * Write the programming languages to a file in the jagged format, behind a header.
+     * <p>
+     * The file is written to a temporary sibling file and then moved into place. A reader never sees a half-written
+     * file, even if the program dies part way through.
+     */
+    static void write(Path file, List<ProgrammingLanguage> languages) throws IOException {
+        // Encode each name once, up front. We need the lengths to size the file anyway.
+        byte[][] names = new byte[languages.size()][];
+        long dataByteSize = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i] = languages.get(i).name.getBytes(StandardCharsets.UTF_8);
+            dataByteSize += Cursor.rowSize(names[i].length);
+        }
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            MemorySegment mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER.byteSize() + dataByteSize, arena);
+
+            var cursor = new Cursor(mapped.asSlice(HEADER.byteSize()));
+            for (int i = 0; i < languages.size(); i++) {
+                cursor.write(languages.get(i).id, names[i]);
+            }
+
+            // Write the header last. If we never get here then the header is all zeros and the file won't open.
+            mapped.set(ValueLayout.JAVA_INT, MAGIC_OFFSET, MAGIC);
+            mapped.set(ValueLayout.JAVA_INT, VERSION_OFFSET, VERSION);
+            mapped.set(ValueLayout.JAVA_LONG, ROW_COUNT_OFFSET, languages.size());
+            mapped.set(ValueLayout.JAVA_LONG, DATA_BYTE_SIZE_OFFSET, dataByteSize);
+            mapped.force();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A jagged collection served directly from a memory-mapped file. The data segment is a slice of the mapping, so it
+     * is valid for as long as the arena that it was opened with.
+     */
+    record MappedCollection(long rowCount, MemorySegment data) {
+
+        static MappedCollection open(Path file, Arena arena) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, READ)) {
+                long fileSize = channel.size();
+                if (fileSize < HEADER.byteSize())
+                    throw new IOException("The file '%s' is too small to be a jagged file.".formatted(file));
+
+                // The mapping stays valid after the channel is closed. It's released when the arena is closed.
+                MemorySegment mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+
+                int magic = mapped.get(ValueLayout.JAVA_INT, MAGIC_OFFSET);
+                if (magic != MAGIC)
+                    throw new IOException("The file '%s' is not a jagged file (magic number 0x%08X).".formatted(file, magic));
+
+                int version = mapped.get(ValueLayout.JAVA_INT, VERSION_OFFSET);
+                if (version != VERSION)
+                    throw new IOException("The file '%s' has format version %d but only version %d is supported.".formatted(file, version, VERSION));
+
+                long rowCount = mapped.get(ValueLayout.JAVA_LONG, ROW_COUNT_OFFSET);
+                long dataByteSize = mapped.get(ValueLayout.JAVA_LONG, DATA_BYTE_SIZE_OFFSET);
+                if (HEADER.byteSize() + dataByteSize != fileSize)
+                    throw new IOException("The file '%s' is %d bytes but the header says it should be %d bytes.".formatted(file, fileSize, HEADER.byteSize() + dataByteSize));
+
+                return new MappedCollection(rowCount, mapped.asSlice(HEADER.byteSize(), dataByteSize));
+            }
+        }
+    }
+
+    /**
+     * A read/write cursor over the jagged rows. This is a trimmed down copy of the cursor in
+     * {@code JaggedSteppingWindowDemo} so that this program can stand on its own.
+     */
+    static final class Cursor {
+
+        private final MemorySegment collection;
+        private long offset;
+
+        Cursor(MemorySegment collection) {
+            this.collection = collection;
+        }
+
+        static long rowSize(long nameLength) {
+            return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+        }
+
+        boolean hasRow() {
+            return offset < collection.byteSize();
+        }
+
+        int id() {
+            return collection.get(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET);
+        }
+
+        short nameLength() {
+            return collection.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+        }
+
+        String nameAsString() {
+            return collection.getUtf8String(offset + STRUCT.byteSize());
+        }
+
+        void next() {
+            offset += rowSize(nameLength());
+        }
+
+        void write(int id, byte[] nameBytes) {
+            if (nameBytes.length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+
+            collection.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, id);
+            collection.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) nameBytes.length);
+            long nameOffset = offset + STRUCT.byteSize();
+            MemorySegment.copy(nameBytes, 0, collection, ValueLayout.JAVA_BYTE, nameOffset, nameBytes.length);
+            collection.set(ValueLayout.JAVA_BYTE, nameOffset + nameBytes.length, (byte) 0);
+            offset = nameOffset + nameBytes.length + 1;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.lang.foreign.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongSupplier;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that scans the jagged "programming languages" collection from
+ * {@code JaggedSteppingWindowDemo} on multiple threads with a {@link ForkJoinPool}.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 ParallelScanDemo.java
+ * </pre>
+ * <p>
+ * The program output is the following:
+ * <pre>
+ *     Wrote 3 rows (28 bytes) with 1 checkpoint(s).
+ *     Sum of the IDs: 6 (sequential: 6)
+ *     Number of IDs greater than 1: 2 (sequential: 2)
+ *     Number of names starting with "J": 1 (sequential: 1)
+ * </pre>
+ * <p>
+ * There are two things that stand in the way of scanning a {@link MemorySegment} in parallel.
+ * <p>
+ * First, a segment allocated by a confined arena (like {@link Arena#ofConfined()}) can only be accessed by the thread
+ * that created the arena. Any other thread gets a {@link WrongThreadException}. The collection has to be allocated by
+ * a shared arena ({@link Arena#ofShared()}) instead.
+ * <p>
+ * Second, the rows are variable width, so we can't just cut the segment into equal byte ranges. A cut would most
+ * likely land in the middle of a row, and there is no way to find the start of the next row from there: the header
+ * bytes can be any value, including zero. Instead, the writer records a "checkpoint" (the offset of the row) every
+ * {@value #ROWS_PER_CHECKPOINT} rows. This is a sparse version of the offset index in {@code JaggedSteppingWindowDemo},
+ * costing 8 bytes per {@value #ROWS_PER_CHECKPOINT} rows instead of 8 bytes per row. The checkpoints split the
+ * collection into row-aligned chunks. The fork/join tasks split the range of checkpoints in half until it is small
+ * enough, and then scan their chunk of rows sequentially.
+ * <p>
+ * Compare the sequential scan to parallel scans on different numbers of threads with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 ParallelScanDemo.java benchmark
+ * </pre>
+ */
+public class ParallelScanDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"));
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    static final int ROWS_PER_CHECKPOINT = 4_096;
+
+    // A task scans at most this many checkpoints worth of rows (64Ki rows) before it stops splitting.
+    static final int CHECKPOINTS_PER_TASK = 16;
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        try (Arena arena = Arena.ofShared()) {
+            Table table = Table.write(arena, PROGRAMMING_LANGUAGES);
+            out.printf("Wrote %d rows (%d bytes) with %d checkpoint(s).%n", table.rowCount(), table.collection().byteSize(), table.checkpointCount());
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            RowFunction sumIds = (collection, rowOffset) -> id(collection, rowOffset);
+            RowFunction idsGreaterThanOne = (collection, rowOffset) -> id(collection, rowOffset) > 1 ? 1 : 0;
+            MemorySegment prefix = MemorySegment.ofArray("J".getBytes(StandardCharsets.UTF_8));
+            RowFunction namesStartingWithJ = (collection, rowOffset) -> nameStartsWith(collection, rowOffset, prefix) ? 1 : 0;
+
+            out.printf("Sum of the IDs: %d (sequential: %d)%n", table.scanParallel(pool, sumIds), table.scanSequential(sumIds));
+            out.printf("Number of IDs greater than 1: %d (sequential: %d)%n", table.scanParallel(pool, idsGreaterThanOne), table.scanSequential(idsGreaterThanOne));
+            out.printf("Number of names starting with \"J\": %d (sequential: %d)%n", table.scanParallel(pool, namesStartingWithJ), table.scanSequential(namesStartingWithJ));
+        }
+    }
+
+    /**
+     * A function of a row that is summed over all the rows in a scan. An aggregate returns the value to sum (like the
+     * ID), and a filter returns 1 for a match and 0 otherwise.
+     */
+    @FunctionalInterface
+    interface RowFunction {
+        long apply(MemorySegment collection, long rowOffset);
+    }
+
+    static int id(MemorySegment collection, long rowOffset) {
+        return collection.get(ValueLayout.JAVA_INT_UNALIGNED, rowOffset + ID_OFFSET);
+    }
+
+    static short nameLength(MemorySegment collection, long rowOffset) {
+        return collection.get(ValueLayout.JAVA_SHORT_UNALIGNED, rowOffset + NAME_LENGTH_OFFSET);
+    }
+
+    static boolean nameStartsWith(MemorySegment collection, long rowOffset, MemorySegment prefix) {
+        long nameOffset = rowOffset + STRUCT.byteSize();
+        return nameLength(collection, rowOffset) >= prefix.byteSize()
+               && MemorySegment.mismatch(collection, nameOffset, nameOffset + prefix.byteSize(), prefix, 0, prefix.byteSize()) == -1;
+    }
+
+    static long rowSize(long nameLength) {
+        return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * The jagged collection together with its checkpoints.
+     *
+     * @param collection      the rows in the jagged layout
+     * @param checkpoints     the offset of every {@value #ROWS_PER_CHECKPOINT}th row, followed by one last entry that
+     *                        is the size of the collection. Chunk {@code i} spans {@code [checkpoints[i], checkpoints[i + 1])}.
+     * @param checkpointCount the number of checkpoints, not counting the last entry
+     * @param rowCount        the number of rows
+     */
+    record Table(MemorySegment collection, MemorySegment checkpoints, long checkpointCount, long rowCount) {
+
+        static Table write(Arena arena, List<ProgrammingLanguage> languages) {
+            byte[][] names = new byte[languages.size()][];
+            long totalBytesNeeded = 0;
+            for (int i = 0; i < languages.size(); i++) {
+                names[i] = languages.get(i).name.getBytes(StandardCharsets.UTF_8);
+                if (names[i].length > Short.MAX_VALUE)
+                    throw new RuntimeException("The string is too long to express its length as a short.");
+                totalBytesNeeded += rowSize(names[i].length);
+            }
+
+            long checkpointCount = (languages.size() + ROWS_PER_CHECKPOINT - 1) / ROWS_PER_CHECKPOINT;
+            MemorySegment collection = arena.allocate(totalBytesNeeded);
+            MemorySegment checkpoints = arena.allocateArray(ValueLayout.JAVA_LONG, checkpointCount + 1);
+
+            long offset = 0;
+            for (int i = 0; i < languages.size(); i++) {
+                if (i % ROWS_PER_CHECKPOINT == 0) {
+                    checkpoints.setAtIndex(ValueLayout.JAVA_LONG, i / ROWS_PER_CHECKPOINT, offset);
+                }
+                collection.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, languages.get(i).id);
+                collection.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) names[i].length);
+                MemorySegment.copy(names[i], 0, collection, ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize(), names[i].length);
+                collection.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + names[i].length, (byte) 0);
+                offset += rowSize(names[i].length);
+            }
+            checkpoints.setAtIndex(ValueLayout.JAVA_LONG, checkpointCount, offset);
+
+            return new Table(collection, checkpoints, checkpointCount, languages.size());
+        }
+
+        long scanSequential(RowFunction function) {
+            return scanRange(function, 0, collection.byteSize());
+        }
+
+        long scanParallel(ForkJoinPool pool, RowFunction function) {
+            return pool.invoke(new ScanTask(this, function, 0, checkpointCount));
+        }
+
+        /**
+         * Scan the rows in the byte range [from, to). Both ends must be on row boundaries.
+         */
+        long scanRange(RowFunction function, long from, long to) {
+            long result = 0;
+            for (long offset = from; offset < to; offset += rowSize(nameLength(collection, offset))) {
+                result += function.apply(collection, offset);
+            }
+            return result;
+        }
+
+        long checkpoint(long index) {
+            return checkpoints.getAtIndex(ValueLayout.JAVA_LONG, index);
+        }
+    }
+
+    /**
+     * Scan the chunks between two checkpoints. The task splits itself in half until it has few enough chunks.
+     * <p>
+     * {@link RecursiveTask} is {@link java.io.Serializable}, but a task is never serialized (it holds a memory segment).
+     */
+    @SuppressWarnings("serial")
+    static final class ScanTask extends RecursiveTask<Long> {
+
+        private final Table table;
+        private final RowFunction function;
+        private final long fromCheckpoint;
+        private final long toCheckpoint;
+
+        ScanTask(Table table, RowFunction function, long fromCheckpoint, long toCheckpoint) {
+            this.table = table;
+            this.function = function;
+            this.fromCheckpoint = fromCheckpoint;
+            this.toCheckpoint = toCheckpoint;
+        }
+
+        @Override
+        protected Long compute() {
+            if (toCheckpoint - fromCheckpoint <= CHECKPOINTS_PER_TASK) {
+                return table.scanRange(function, table.checkpoint(fromCheckpoint), table.checkpoint(toCheckpoint));
+            }
+
+            long middle = (fromCheckpoint + toCheckpoint) >>> 1;
+            var left = new ScanTask(table, function, fromCheckpoint, middle);
+            var right = new ScanTask(table, function, middle, toCheckpoint);
+            left.fork();
+            long rightResult = right.compute();
+            return left.join() + rightResult;
+        }
+    }
+
+    /**
+     * A quick-and-dirty benchmark of a filter query and an aggregate query, scanned sequentially and then in parallel
+     * on pools of increasing size. The best of several rounds is reported for each.
+     */
+    static void benchmark() {
+        int rows = 20_000_000;
+        String[] names = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "JavaScript"};
+        var languages = new ArrayList<ProgrammingLanguage>(rows);
+        for (int i = 0; i < rows; i++) languages.add(new ProgrammingLanguage(i, names[i % names.length]));
+
+        try (Arena arena = Arena.ofShared()) {
+            Table table = Table.write(arena, languages);
+            languages.clear();
+            MemorySegment prefix = MemorySegment.ofArray("Java".getBytes(StandardCharsets.UTF_8));
+            RowFunction filter = (collection, rowOffset) -> nameStartsWith(collection, rowOffset, prefix) ? 1 : 0;
+            RowFunction aggregate = (collection, rowOffset) -> id(collection, rowOffset);
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            out.printf("Benchmarking %,d rows (%,d bytes) on a machine with %d core(s). Reporting the best of 5 rounds.%n",
+                    rows, table.collection().byteSize(), cores);
+            report("sequential", rows, () -> table.scanSequential(filter), () -> table.scanSequential(aggregate));
+            // Double the threads each step, but always end with exactly the number of cores (like 6 or 12).
+            for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+                var pool = new ForkJoinPool(threads);
+                report("%d thread(s)".formatted(threads), rows, () -> table.scanParallel(pool, filter), () -> table.scanParallel(pool, aggregate));
+                pool.close();
+                if (threads >= cores) break;
+            }
+        }
+    }
+
+    private static void report(String name, long rows, LongSupplier filter, LongSupplier aggregate) {
+        out.printf("%-12s filter %,15.0f rows/s   aggregate %,15.0f rows/s%n", name, rows / best(filter), rows / best(aggregate));
+    }
+
+    /**
+     * The best time in seconds.
+     */
+    private static double best(LongSupplier query) {
+        query.getAsLong(); // Warm up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            query.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e9;
+    }
+}
@@ -1,24 +1,52 @@
 import java.lang.foreign.*;
-import java.lang.foreign.MemoryLayout.PathElement;
-import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Random;
 
 /**
  * This is a single-file Java program for exploring reading and writing strings using the Java foreign memory API.
  * It can be built and run with the `java` command using Java 21. Do so like this:
  *
  * <pre>
- *     java --enable-preview --source 21 StringOnlyDemo.java
+ *     java --enable-preview --source 21 StringOnlyDemo.java [benchmark]
  * </pre>
+ * <p>
+ * The strings are stored in a fixed-width string table. Every string gets a slot of the same width: a length byte
+ * followed by the UTF-8 bytes of the string, padded with zeros. For example, a table with a max length of 5:
+ * <pre>
+ *     slot 0   5 h e l l o
+ *     slot 1   5 t h e r e
+ *     slot 2   2 h i 0 0 0
+ * </pre>
+ * <p>
+ * Because the slots are all the same width, the slot for row {@code i} starts at {@code i * slotWidth}. An earlier
+ * version of this program got each slot with a {@link SequenceLayout#sliceHandle} instead. That is an untyped
+ * {@link java.lang.invoke.MethodHandle#invoke} which boxes the index and creates a slice segment for every element, and
+ * then {@link MemorySegment#getUtf8String} has to scan for a null terminator. Stride addressing and a length byte do away
+ * with all of that.
+ * <p>
+ * When the table is sorted, binary search finds a string in it without decoding or allocating anything. The strings are
+ * compared by their unsigned UTF-8 bytes, which is the same order as comparing them by code point.
  */
 public class StringOnlyDemo {
 
-    public static void main(String[] args) throws Throwable {
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
         System.out.println("Let's explore how to read and write strings using the Java foreign memory API!");
         new StringOnlyDemo().run();
     }
 
-    public void run() throws Throwable {
+    public void run() {
         try (Arena arena = Arena.ofConfined()) {
             List<String> fiveCharacterAsciiMessages = List.of(
                     "hello",
@@ -26,29 +54,275 @@ public class StringOnlyDemo {
                     "world");
             int elementCount = fiveCharacterAsciiMessages.size();
 
-            // The ASCII messages are 5 bytes, but we need 6 bytes the for the null terminator.
-            var messageLayout = MemoryLayout.sequenceLayout(6, ValueLayout.JAVA_BYTE).withName("message");
-            SequenceLayout messagesLayout = MemoryLayout.sequenceLayout(elementCount, messageLayout).withName("messagesSequenceLayout");
-
-            MethodHandle messageSequenceHandler = messagesLayout.sliceHandle(
-                    PathElement.sequenceElement());
-
-            System.out.println("Let's create a memory segment and write to it...");
-            MemorySegment segment = arena.allocate(messagesLayout);
-            for (int i = 0; i < fiveCharacterAsciiMessages.size(); i++) {
+            System.out.println("Let's create a fixed-width string table and write to it...");
+            var table = new FixedWidthStringTable(arena, elementCount, 5);
+            for (int i = 0; i < elementCount; i++) {
                 var message = fiveCharacterAsciiMessages.get(i);
                 System.out.printf("Writing message: %s%n", message);
-                MemorySegment messageSegment = (MemorySegment) messageSequenceHandler.invoke(segment, i);
-                messageSegment.setUtf8String(0, message);
+                table.set(i, message);
             }
 
             System.out.println("Let's read the data back from the memory segment...");
             for (int i = 0; i < elementCount; i++) {
-                MemorySegment messageSegment;
-                messageSegment = (MemorySegment) messageSequenceHandler.invoke(segment, i);
-                var message = messageSegment.getUtf8String(0);
-                System.out.println(message);
+                System.out.println(table.get(i));
+            }
+
+            System.out.println("Let's bulk load a sorted table and search it...");
+            var sorted = FixedWidthStringTable.sorted(arena, List.of("world", "hi", "hello", "there", "hey"), 5);
+            for (int i = 0; i < sorted.size(); i++) {
+                System.out.printf("Slot %d: %s%n", i, sorted.get(i));
+            }
+
+            var keys = FixedWidthStringTable.of(arena, List.of("hey", "there", "howdy"), 5);
+            for (int i = 0; i < keys.size(); i++) {
+                int found = sorted.binarySearch(keys.segment(), keys.stringOffset(i), keys.length(i));
+                if (found >= 0) {
+                    System.out.printf("Found '%s' at slot %d%n", keys.get(i), found);
+                } else {
+                    System.out.printf("Did not find '%s'. It would go at slot %d%n", keys.get(i), -(found + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * A table of strings stored in fixed-width slots. Each slot is a length byte followed by up to {@code maxLength}
+     * bytes of UTF-8.
+     * <p>
+     * This is not thread-safe. It is as thread-safe as the segment it's allocated in.
+     */
+    static final class FixedWidthStringTable {
+
+        private static final ValueLayout.OfLong BIG_ENDIAN_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+        private final MemorySegment segment;
+        private final int size;
+        private final int maxLength;
+        private final long slotWidth;
+
+        /**
+         * @param maxLength the max length of a string, in bytes of UTF-8. The length is stored in a byte, so this is at
+         *                  most 255.
+         */
+        FixedWidthStringTable(SegmentAllocator allocator, int size, int maxLength) {
+            if (maxLength < 0 || maxLength > 255)
+                throw new IllegalArgumentException("The max length must be between 0 and 255 but was %d".formatted(maxLength));
+
+            this.size = size;
+            this.maxLength = maxLength;
+            this.slotWidth = 1 + maxLength;
+            var slotLayout = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_BYTE.withName("length"),
+                    MemoryLayout.sequenceLayout(maxLength, ValueLayout.JAVA_BYTE).withName("bytes"));
+            this.segment = allocator.allocate(MemoryLayout.sequenceLayout(size, slotLayout));
+        }
+
+        /**
+         * Bulk load a table from the given strings, in the given order.
+         */
+        static FixedWidthStringTable of(SegmentAllocator allocator, Collection<String> strings, int maxLength) {
+            var table = new FixedWidthStringTable(allocator, strings.size(), maxLength);
+            int i = 0;
+            for (String string : strings) {
+                table.set(i++, string.getBytes(StandardCharsets.UTF_8));
+            }
+            return table;
+        }
+
+        /**
+         * Bulk load a table from the given strings, sorted so that the table can be searched with
+         * {@link #binarySearch}.
+         * <p>
+         * The strings are sorted by their UTF-8 bytes, compared unsigned. This is the order that
+         * {@link #binarySearch} needs. It is also code point order, which is not quite the same as
+         * {@link String#compareTo} for strings with characters outside the Basic Multilingual Plane.
+         */
+        static FixedWidthStringTable sorted(SegmentAllocator allocator, Collection<String> strings, int maxLength) {
+            byte[][] encoded = new byte[strings.size()][];
+            int i = 0;
+            for (String string : strings) {
+                encoded[i++] = string.getBytes(StandardCharsets.UTF_8);
+            }
+            Arrays.sort(encoded, Arrays::compareUnsigned);
+
+            var table = new FixedWidthStringTable(allocator, encoded.length, maxLength);
+            for (i = 0; i < encoded.length; i++) {
+                table.set(i, encoded[i]);
+            }
+            return table;
+        }
+
+        int size() {
+            return size;
+        }
+
+        MemorySegment segment() {
+            return segment;
+        }
+
+        private long slotOffset(int index) {
+            return Objects.checkIndex(index, size) * slotWidth;
+        }
+
+        /**
+         * The offset, in {@link #segment()}, of the first byte of the string at the given index.
+         */
+        long stringOffset(int index) {
+            return slotOffset(index) + 1;
+        }
+
+        /**
+         * The length of the string at the given index, in bytes of UTF-8.
+         */
+        int length(int index) {
+            return Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, slotOffset(index)));
+        }
+
+        void set(int index, String string) {
+            set(index, string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void set(int index, byte[] bytes) {
+            if (bytes.length > maxLength)
+                throw new IllegalArgumentException("The string is %d bytes but the max length is %d".formatted(bytes.length, maxLength));
+
+            long offset = slotOffset(index);
+            segment.set(ValueLayout.JAVA_BYTE, offset, (byte) bytes.length);
+            MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 1, bytes.length);
+            // Zero the rest of the slot so that a shorter string doesn't leave the tail of a longer one behind.
+            segment.asSlice(offset + 1 + bytes.length, maxLength - bytes.length).fill((byte) 0);
+        }
+
+        /**
+         * Decode the string at the given index. This allocates a {@link String}; the other read methods don't allocate.
+         */
+        String get(int index) {
+            byte[] bytes = new byte[length(index)];
+            MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, stringOffset(index), bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Compare the string at the given index to the key, by unsigned bytes.
+         * <p>
+         * The bytes are compared eight at a time by reading them as big-endian longs, so that the first differing byte
+         * decides an unsigned comparison of the longs. {@link MemorySegment#mismatch} does the same thing, but it has a
+         * fixed cost that is too much for strings this short.
+         *
+         * @return a negative number, zero, or a positive number if the string is less than, equal to, or greater than
+         * the key
+         */
+        int compare(int index, MemorySegment key, long keyOffset, int keyLength) {
+            int length = length(index);
+            long start = stringOffset(index);
+            int common = Math.min(length, keyLength);
+            int i = 0;
+            for (; i + Long.BYTES <= common; i += Long.BYTES) {
+                long a = segment.get(BIG_ENDIAN_LONG, start + i);
+                long b = key.get(BIG_ENDIAN_LONG, keyOffset + i);
+                if (a != b) return Long.compareUnsigned(a, b);
+            }
+            for (; i < common; i++) {
+                int a = Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, start + i));
+                int b = Byte.toUnsignedInt(key.get(ValueLayout.JAVA_BYTE, keyOffset + i));
+                if (a != b) return a - b;
             }
+            return length - keyLength;
+        }
+
+        /**
+         * Search a sorted table for the key. The table must have been sorted by unsigned bytes, like
+         * {@link #sorted} does.
+         *
+         * @param key       a segment that holds the key's UTF-8 bytes. This can be another table's segment.
+         * @param keyOffset the offset of the key in the segment
+         * @param keyLength the length of the key in bytes
+         * @return the index of the key, if it's in the table. Otherwise, {@code -(insertion point) - 1}, like
+         * {@link Arrays#binarySearch(int[], int)}.
+         */
+        int binarySearch(MemorySegment key, long keyOffset, int keyLength) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = compare(mid, key, keyOffset, keyLength);
+                if (comparison < 0) {
+                    low = mid + 1;
+                } else if (comparison > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    /**
+     * Measure random-access reads and binary search lookups over a table of a million strings. The allocation is
+     * measured too, to show that a lookup doesn't allocate.
+     */
+    static void benchmark() {
+        final int rows = 1_000_000;
+        final int lookups = 1_000_000;
+        final int rounds = 5;
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+
+        var strings = new ArrayList<String>(rows);
+        for (int i = 0; i < rows; i++) {
+            // Even numbers only so that half of the lookups miss.
+            strings.add("message-%08d".formatted(2 * i));
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            var table = FixedWidthStringTable.sorted(arena, strings, 16);
+
+            var random = new Random(0);
+            var queryStrings = new ArrayList<String>(lookups);
+            int[] rowNumbers = new int[lookups];
+            for (int i = 0; i < lookups; i++) {
+                queryStrings.add("message-%08d".formatted(random.nextInt(2 * rows)));
+                rowNumbers[i] = random.nextInt(rows);
+            }
+            var queries = FixedWidthStringTable.of(arena, queryStrings, 16);
+
+            // Warm up
+            long blackhole = readLengths(table, rowNumbers) + search(table, queries);
+
+            long bestRead = Long.MAX_VALUE, bestSearch = Long.MAX_VALUE, allocated = 0;
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                blackhole += readLengths(table, rowNumbers);
+                bestRead = Math.min(bestRead, System.nanoTime() - start);
+
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                start = System.nanoTime();
+                blackhole += search(table, queries);
+                bestSearch = Math.min(bestSearch, System.nanoTime() - start);
+                allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+
+            System.out.printf("%,d strings in %,d bytes (%d bytes per slot)%n", rows, table.segment().byteSize(), table.segment().byteSize() / rows);
+            System.out.printf("Random reads:  %,.0f lookups/s%n", lookups / (bestRead / 1e9));
+            System.out.printf("Binary search: %,.0f lookups/s, %,d bytes allocated for %,d lookups%n", lookups / (bestSearch / 1e9), allocated, lookups);
+            System.out.printf("(ignore: %d)%n", blackhole);
+        }
+    }
+
+    private static long readLengths(FixedWidthStringTable table, int[] rowNumbers) {
+        long sum = 0;
+        for (int row : rowNumbers) {
+            sum += table.length(row) + table.segment().get(ValueLayout.JAVA_BYTE, table.stringOffset(row) + table.length(row) - 1);
+        }
+        return sum;
+    }
+
+    private static long search(FixedWidthStringTable table, FixedWidthStringTable queries) {
+        long found = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            if (table.binarySearch(queries.segment(), queries.stringOffset(i), queries.length(i)) >= 0) found++;
         }
+        return found;
     }
 }
@@ -0,0 +1,894 @@
+import java.lang.foreign.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that builds an off-heap trigram index over the names in a jagged
+ * "programming languages" collection, and uses it for substring and regex searches.
+ * <p>
+ * This program can be built and run with the `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 TrigramIndexDemo.java [benchmark]
+ * </pre>
+ * <p>
+ * The program output is the following:
+ * <pre>
+ *     Appended and indexed 8 rows. 24 distinct trigrams.
+ *     substring "as" (nothing for the index to look up, so every row was scanned): [Haskell]
+ *     substring "ava" (2 candidate(s)): [Java, JavaScript]
+ *     substring "Scri" (2 candidate(s)): [TypeScript, JavaScript]
+ *     regex "^.*Sc?ript$" (2 candidate(s)): [TypeScript, JavaScript]
+ *     regex "Ko(t|l)" (nothing for the index to look up, so every row was scanned): [Kotlin]
+ *     Checked 6 regexes with escapes against a full scan.
+ * </pre>
+ * <p>
+ * A substring search over the jagged layout has to look at every name, which is fine for thousands of rows but not for
+ * tens of millions. A trigram index (the technique behind tools like Google Code Search, see
+ * <a href="https://swtch.com/~rsc/regexp/regexp4.html">Regular Expression Matching with a Trigram Index</a>) maps each
+ * three-byte sequence ("gram") to the list of rows whose name contains it. A name that contains "Script" must contain
+ * the grams "Scr", "cri", "rip" and "ipt", so only the rows in all four posting lists can match. Those candidates
+ * are then verified against the actual bytes, because having all the grams doesn't guarantee that they are in the right
+ * order.
+ * <p>
+ * A regex is handled the same way, after pulling out its "literal factors": the runs of plain characters that any
+ * match must contain. For example, "^.*Sc?ript$" must contain "ript". The extraction is deliberately conservative (see
+ * {@link #literalFactors(String)}). A regex with no literal factor of at least three bytes falls back to a full scan.
+ * <p>
+ * The index is entirely off-heap and it is built incrementally: {@link Table#append} writes the row and adds it to the
+ * posting lists of its grams right away. See {@link TrigramIndex} for the layout. You can compare the index to a full
+ * scan, and see the memory overhead of the index, with:
+ *
+ * <pre>
+ *     java --enable-preview --source 21 TrigramIndexDemo.java benchmark
+ * </pre>
+ */
+public class TrigramIndexDemo {
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"),
+            new ProgrammingLanguage(4, "Haskell"),
+            new ProgrammingLanguage(5, "TypeScript"),
+            new ProgrammingLanguage(6, "JavaScript"),
+            new ProgrammingLanguage(7, "Kotlin"),
+            new ProgrammingLanguage(8, "OCaml"));
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    /**
+     * Receives the row number of each matching row.
+     */
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(int row);
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            var table = new Table(arena, 16);
+            for (var language : PROGRAMMING_LANGUAGES) {
+                table.append(language.id(), language.name());
+            }
+            out.printf("Appended and indexed %d rows. %d distinct trigrams.%n", table.rowCount(), table.index().gramCount());
+
+            for (String substring : List.of("as", "ava", "Scri")) {
+                var names = new ArrayList<String>();
+                long candidates = table.forEachSubstringMatch(substring, row -> names.add(table.nameAsString(row)));
+                out.printf("substring \"%s\" %s: %s%n", substring, describe(candidates), names);
+            }
+            for (String regex : List.of("^.*Sc?ript$", "Ko(t|l)")) {
+                var names = new ArrayList<String>();
+                long candidates = table.forEachRegexMatch(Pattern.compile(regex), row -> names.add(table.nameAsString(row)));
+                out.printf("regex \"%s\" %s: %s%n", regex, describe(candidates), names);
+            }
+
+            // Escapes that spell a literal character in more than one character must not turn into wrong factors.
+            var escapes = List.of("\\x4Aava", "\\x{4A}ava", "\\u004Aava", "\\0112ava", "Java\\cIScript", "(J)ava\\1");
+            for (String regex : escapes) checkAgainstScan(table, Pattern.compile(regex));
+            out.printf("Checked %d regexes with escapes against a full scan.%n", escapes.size());
+        }
+    }
+
+    /**
+     * Check that an indexed regex search finds the same rows as a full scan.
+     */
+    private static void checkAgainstScan(Table table, Pattern pattern) {
+        var indexed = new ArrayList<Integer>();
+        table.forEachRegexMatch(pattern, indexed::add);
+        var scanned = new ArrayList<Integer>();
+        table.scan(table.new RegexVerifier(pattern), scanned::add);
+        if (!indexed.equals(scanned)) {
+            throw new IllegalStateException("The indexed search for the regex \"%s\" found rows %s but a full scan found rows %s".formatted(pattern, indexed, scanned));
+        }
+    }
+
+    private static String describe(long candidates) {
+        if (candidates == Table.FULL_SCAN) return "(nothing for the index to look up, so every row was scanned)";
+        return "(%d candidate(s))".formatted(candidates);
+    }
+
+    /**
+     * A jagged collection with an offset index (so that a row can be found by its row number) and a trigram index over
+     * the names. Rows are numbered from 0 in the order they are appended. Everything grows by doubling, and the old
+     * segments are not freed until the arena is closed.
+     */
+    static final class Table {
+
+        /**
+         * Returned by the searches instead of a candidate count when the index couldn't be used.
+         */
+        static final long FULL_SCAN = -1;
+
+        /**
+         * The {@link Pattern} flags under which a literal in the regex's source doesn't match exactly those bytes. For
+         * example, "java" matches "Java" when case-insensitive, and "Ja va" matches "Java" with comments.
+         */
+        static final int UNINDEXABLE_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.COMMENTS | Pattern.LITERAL | Pattern.CANON_EQ;
+
+        private final SegmentAllocator allocator;
+        private final TrigramIndex index;
+        private MemorySegment collection;
+        private MemorySegment offsets;
+        private long byteSize;
+        private int rowCount;
+
+        Table(SegmentAllocator allocator, int expectedRowCount) {
+            this.allocator = allocator;
+            this.index = new TrigramIndex(allocator);
+            this.collection = allocator.allocate(Math.max(expectedRowCount, 1) * 16L);
+            this.offsets = allocator.allocateArray(ValueLayout.JAVA_LONG, Math.max(expectedRowCount, 1));
+        }
+
+        /**
+         * Append a row and add it to the trigram index.
+         *
+         * @return the row number
+         */
+        int append(int id, String name) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+
+            long rowSize = rowSize(nameBytes.length);
+            if (byteSize + rowSize > collection.byteSize()) {
+                long newCapacity = collection.byteSize() * 2;
+                while (newCapacity < byteSize + rowSize) newCapacity *= 2;
+                MemorySegment grown = allocator.allocate(newCapacity);
+                MemorySegment.copy(collection, 0, grown, 0, byteSize);
+                collection = grown;
+            }
+            if (rowCount == offsets.byteSize() / ValueLayout.JAVA_LONG.byteSize()) {
+                MemorySegment grown = allocator.allocateArray(ValueLayout.JAVA_LONG, rowCount * 2L);
+                MemorySegment.copy(offsets, 0, grown, 0, offsets.byteSize());
+                offsets = grown;
+            }
+
+            collection.set(ValueLayout.JAVA_INT_UNALIGNED, byteSize + ID_OFFSET, id);
+            collection.set(ValueLayout.JAVA_SHORT_UNALIGNED, byteSize + NAME_LENGTH_OFFSET, (short) nameBytes.length);
+            long nameOffset = byteSize + STRUCT.byteSize();
+            MemorySegment.copy(nameBytes, 0, collection, ValueLayout.JAVA_BYTE, nameOffset, nameBytes.length);
+            collection.set(ValueLayout.JAVA_BYTE, nameOffset + nameBytes.length, (byte) 0);
+            offsets.setAtIndex(ValueLayout.JAVA_LONG, rowCount, byteSize);
+            byteSize += rowSize;
+
+            int row = rowCount++;
+            index.add(row, collection, nameOffset, nameOffset + nameBytes.length);
+            return row;
+        }
+
+        static long rowSize(long nameLength) {
+            return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+        }
+
+        int rowCount() {
+            return rowCount;
+        }
+
+        TrigramIndex index() {
+            return index;
+        }
+
+        /**
+         * The rows written so far.
+         */
+        MemorySegment collection() {
+            return collection.asSlice(0, byteSize);
+        }
+
+        long nameOffset(int row) {
+            return offsets.getAtIndex(ValueLayout.JAVA_LONG, row) + STRUCT.byteSize();
+        }
+
+        int nameLength(int row) {
+            return collection.get(ValueLayout.JAVA_SHORT_UNALIGNED, offsets.getAtIndex(ValueLayout.JAVA_LONG, row) + NAME_LENGTH_OFFSET);
+        }
+
+        String nameAsString(int row) {
+            return collection.getUtf8String(nameOffset(row));
+        }
+
+        /**
+         * Find the rows whose name contains the substring. Substrings of three bytes or more are looked up in the
+         * trigram index and only the candidate rows are verified. Shorter substrings need a full scan.
+         *
+         * @return the number of candidate rows that were verified, or {@link #FULL_SCAN}
+         */
+        long forEachSubstringMatch(String substring, RowConsumer consumer) {
+            byte[] needle = substring.getBytes(StandardCharsets.UTF_8);
+            var verifier = new SubstringVerifier(needle);
+            if (needle.length < 3) {
+                scan(verifier, consumer);
+                return FULL_SCAN;
+            }
+            return index.forEachCandidate(List.of(needle), row -> {
+                if (verifier.matches(row)) consumer.accept(row);
+            });
+        }
+
+        /**
+         * Find the rows whose name contains a match for the regex (see {@link Matcher#find()}). The regex's literal
+         * factors are looked up in the trigram index and only the candidate rows are run through the regex.
+         *
+         * <p>
+         * The literal factors are read from the regex's source, so a pattern compiled with a flag that changes what a
+         * literal matches (see {@link #UNINDEXABLE_FLAGS}) falls back to a full scan. Embedded flags like {@code (?i)}
+         * already do, because {@link #literalFactors(String)} gives up on {@code (?}.
+         *
+         * @return the number of candidate rows that were verified, or {@link #FULL_SCAN}
+         */
+        long forEachRegexMatch(Pattern pattern, RowConsumer consumer) {
+            var verifier = new RegexVerifier(pattern);
+            if ((pattern.flags() & UNINDEXABLE_FLAGS) != 0) {
+                scan(verifier, consumer);
+                return FULL_SCAN;
+            }
+            List<byte[]> factors = new ArrayList<>();
+            for (String factor : literalFactors(pattern.pattern())) {
+                byte[] bytes = factor.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length >= 3) factors.add(bytes);
+            }
+            if (factors.isEmpty()) {
+                scan(verifier, consumer);
+                return FULL_SCAN;
+            }
+            return index.forEachCandidate(factors, row -> {
+                if (verifier.matches(row)) consumer.accept(row);
+            });
+        }
+
+        /**
+         * Verify every row. This is what a search has to do without the index.
+         */
+        void scan(Verifier verifier, RowConsumer consumer) {
+            for (int row = 0; row < rowCount; row++) {
+                if (verifier.matches(row)) consumer.accept(row);
+            }
+        }
+
+        interface Verifier {
+            boolean matches(int row);
+        }
+
+        /**
+         * Checks that a row's name really contains the substring, by comparing bytes in place.
+         */
+        final class SubstringVerifier implements Verifier {
+            private final MemorySegment needle;
+
+            SubstringVerifier(byte[] needle) {
+                this.needle = MemorySegment.ofArray(needle);
+            }
+
+            @Override
+            public boolean matches(int row) {
+                long from = nameOffset(row);
+                long to = from + nameLength(row);
+                long length = needle.byteSize();
+                if (length == 0) return true;
+                byte first = needle.get(ValueLayout.JAVA_BYTE, 0);
+                for (long i = from; i <= to - length; i++) {
+                    if (collection.get(ValueLayout.JAVA_BYTE, i) == first
+                        && MemorySegment.mismatch(collection, i, i + length, needle, 0, length) == -1) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Runs the regex over a row's name through a reused {@link CharSequence} view of the bytes, so that no
+         * {@link String} is created. Each byte is one {@code char}, which is exact for ASCII.
+         */
+        final class RegexVerifier implements Verifier, CharSequence {
+            private final Matcher matcher;
+            private long from;
+            private int length;
+
+            RegexVerifier(Pattern pattern) {
+                this.matcher = pattern.matcher(this);
+            }
+
+            @Override
+            public boolean matches(int row) {
+                from = nameOffset(row);
+                length = nameLength(row);
+                return matcher.reset().find();
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                return (char) (collection.get(ValueLayout.JAVA_BYTE, from + index) & 0xFF);
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                byte[] bytes = new byte[length];
+                MemorySegment.copy(collection, ValueLayout.JAVA_BYTE, from, bytes, 0, length);
+                return new String(bytes, StandardCharsets.ISO_8859_1);
+            }
+        }
+    }
+
+    /**
+     * An off-heap inverted index from each trigram to the rows that contain it.
+     * <p>
+     * A gram is three bytes, packed into the low 24 bits of an {@code int}. Each gram has a posting list: the ascending
+     * row numbers of the names that contain the gram. A posting list is compressed by storing the difference from the
+     * previous row number as an LEB128 varint. Neighboring rows often share grams, so most differences fit in one byte.
+     * <p>
+     * The index is made of three segments:
+     * <pre>
+     *     slots   An open-addressing hash table. Each slot is a {@code long}: the gram in the high 32 bits, and the
+     *             number of its posting list plus one in the low 32 bits. A zero slot is empty.
+     *     lists   A fixed-width {@link #LIST} header for each posting list: the gram, the row count, the last row, and
+     *             where the list's blocks are.
+     *     blocks  The varint bytes of all the posting lists, in blocks. Each block starts with the offset of the next
+     *             block of the same list (zero for the last block).
+     * </pre>
+     * <p>
+     * The blocks are what make the index incremental. Appending a row number to a posting list writes into the list's
+     * last block, and when that is full a new block is chained on. Each block of a list is twice the size of the one
+     * before (up to {@link #MAX_BLOCK_SIZE}) so a rare gram wastes little space and a common gram doesn't need many
+     * blocks. The unused tail of a block is zero, and a varint for a difference of at least one never starts with a
+     * zero byte, so a reader knows where the data in a block ends.
+     */
+    static final class TrigramIndex {
+
+        static final StructLayout LIST = MemoryLayout.structLayout(
+                        ValueLayout.JAVA_INT.withName("gram"),
+                        ValueLayout.JAVA_INT.withName("rowCount"),
+                        ValueLayout.JAVA_INT.withName("lastRow"),
+                        ValueLayout.JAVA_INT.withName("blockCount"),
+                        ValueLayout.JAVA_LONG.withName("firstBlock"),
+                        ValueLayout.JAVA_LONG.withName("lastBlock"),
+                        ValueLayout.JAVA_LONG.withName("writeOffset"))
+                .withName("postingList");
+        static final long GRAM_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("gram"));
+        static final long ROW_COUNT_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("rowCount"));
+        static final long LAST_ROW_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("lastRow"));
+        static final long BLOCK_COUNT_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("blockCount"));
+        static final long FIRST_BLOCK_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("firstBlock"));
+        static final long LAST_BLOCK_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("lastBlock"));
+        static final long WRITE_OFFSET_OFFSET = LIST.byteOffset(MemoryLayout.PathElement.groupElement("writeOffset"));
+
+        // Each block starts with the offset of the next block.
+        static final long BLOCK_HEADER_SIZE = ValueLayout.JAVA_LONG.byteSize();
+        static final int MIN_BLOCK_SIZE = 16;
+        static final int MAX_BLOCK_SIZE = 4096;
+        // The largest varint for an int is five bytes.
+        static final int MAX_VARINT_SIZE = 5;
+
+        private static final long EMPTY = 0;
+        private static final float MAX_LOAD_FACTOR = 0.5f;
+
+        private final SegmentAllocator allocator;
+        private MemorySegment slots;
+        private long mask;
+        private MemorySegment lists;
+        private int listCount;
+        private MemorySegment blocks;
+        private long blocksByteSize;
+
+        TrigramIndex(SegmentAllocator allocator) {
+            this.allocator = allocator;
+            allocateSlots(1024);
+            this.lists = allocator.allocate(MemoryLayout.sequenceLayout(512, LIST));
+            this.blocks = allocator.allocate(64 * 1024, ValueLayout.JAVA_LONG.byteAlignment());
+            // Offset 0 means "no block", so the first block starts after it.
+            this.blocksByteSize = BLOCK_HEADER_SIZE;
+        }
+
+        /**
+         * Add the row to the posting list of every gram in its name. Rows must be added in ascending order.
+         */
+        void add(int row, MemorySegment segment, long from, long to) {
+            for (long i = from; i + 3 <= to; i++) {
+                int gram = gram(segment, i);
+                long list = listOffset(gram, true);
+                // A gram that occurs more than once in the same name is only recorded once.
+                if (lists.get(ValueLayout.JAVA_INT, list + ROW_COUNT_OFFSET) > 0
+                    && lists.get(ValueLayout.JAVA_INT, list + LAST_ROW_OFFSET) == row) continue;
+                appendToList(list, row);
+            }
+        }
+
+        int gramCount() {
+            return listCount;
+        }
+
+        /**
+         * The number of bytes used by the index: the hash table, the posting list headers and the blocks.
+         */
+        long byteSize() {
+            return slots.byteSize() + listCount * LIST.byteSize() + blocksByteSize;
+        }
+
+        /**
+         * The number of bytes of varint data in the posting lists. The rest of {@link #byteSize()} is overhead.
+         */
+        long postingByteSize() {
+            long sum = 0;
+            for (int i = 0; i < listCount; i++) {
+                long list = i * LIST.byteSize();
+                int blockCount = lists.get(ValueLayout.JAVA_INT, list + BLOCK_COUNT_OFFSET);
+                long lastBlock = lists.get(ValueLayout.JAVA_LONG, list + LAST_BLOCK_OFFSET);
+                // Every block but the last is full (give or take a few bytes that couldn't fit a varint).
+                for (int b = 0; b < blockCount - 1; b++) sum += blockSize(b);
+                sum += lists.get(ValueLayout.JAVA_LONG, list + WRITE_OFFSET_OFFSET) - (lastBlock + BLOCK_HEADER_SIZE);
+            }
+            return sum;
+        }
+
+        /**
+         * Pass each row that has all the grams of all the literals to the consumer, in ascending order. The posting
+         * lists are intersected starting from the shortest one, and the others are only stepped forward.
+         *
+         * @return the number of candidate rows
+         */
+        long forEachCandidate(List<byte[]> literals, RowConsumer consumer) {
+            var grams = new ArrayList<Integer>();
+            for (byte[] literal : literals) {
+                MemorySegment segment = MemorySegment.ofArray(literal);
+                for (int i = 0; i + 3 <= literal.length; i++) {
+                    int gram = gram(segment, i);
+                    if (!grams.contains(gram)) grams.add(gram);
+                }
+            }
+
+            var iterators = new PostingIterator[grams.size()];
+            for (int i = 0; i < iterators.length; i++) {
+                long list = listOffset(grams.get(i), false);
+                if (list == -1) return 0; // A gram that no name has, so no name can match.
+                iterators[i] = new PostingIterator(list);
+            }
+            Arrays.sort(iterators, Comparator.comparingInt(PostingIterator::rowCount));
+
+            long candidates = 0;
+            PostingIterator driver = iterators[0];
+            rows:
+            for (int row = driver.next(); row != -1; row = driver.next()) {
+                for (int i = 1; i < iterators.length; i++) {
+                    int other = iterators[i].advanceTo(row);
+                    if (other == -1) break rows;
+                    if (other != row) continue rows;
+                }
+                candidates++;
+                consumer.accept(row);
+            }
+            return candidates;
+        }
+
+        /**
+         * Decodes one posting list, front to back.
+         */
+        final class PostingIterator {
+            private final int rowCount;
+            private int blockIndex;
+            private long block;
+            private long position;
+            private long blockEnd;
+            private int row = -1;
+            private boolean exhausted;
+
+            PostingIterator(long list) {
+                this.rowCount = lists.get(ValueLayout.JAVA_INT, list + ROW_COUNT_OFFSET);
+                this.block = lists.get(ValueLayout.JAVA_LONG, list + FIRST_BLOCK_OFFSET);
+                this.position = block + BLOCK_HEADER_SIZE;
+                this.blockEnd = position + blockSize(0);
+            }
+
+            int rowCount() {
+                return rowCount;
+            }
+
+            /**
+             * The next row, or -1 when there are no more.
+             */
+            int next() {
+                if (exhausted) return -1;
+                if (position == blockEnd || blocks.get(ValueLayout.JAVA_BYTE, position) == 0) {
+                    block = blocks.get(ValueLayout.JAVA_LONG, block);
+                    if (block == 0) {
+                        exhausted = true;
+                        return -1;
+                    }
+                    blockIndex++;
+                    position = block + BLOCK_HEADER_SIZE;
+                    blockEnd = position + blockSize(blockIndex);
+                }
+
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = blocks.get(ValueLayout.JAVA_BYTE, position++);
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += delta;
+                return row;
+            }
+
+            /**
+             * Step forward to the first row that is at least the target, and return it. Returns -1 when there are no
+             * more rows.
+             */
+            int advanceTo(int target) {
+                while (row < target) {
+                    if (next() == -1) return -1;
+                }
+                return row;
+            }
+        }
+
+        private void appendToList(long list, int row) {
+            int lastRow = lists.get(ValueLayout.JAVA_INT, list + LAST_ROW_OFFSET);
+            int rowCount = lists.get(ValueLayout.JAVA_INT, list + ROW_COUNT_OFFSET);
+            int blockCount = lists.get(ValueLayout.JAVA_INT, list + BLOCK_COUNT_OFFSET);
+            long lastBlock = lists.get(ValueLayout.JAVA_LONG, list + LAST_BLOCK_OFFSET);
+            long writeOffset = lists.get(ValueLayout.JAVA_LONG, list + WRITE_OFFSET_OFFSET);
+
+            // The first row is stored as a difference from -1, so that every difference is at least one.
+            int delta = rowCount == 0 ? row + 1 : row - lastRow;
+
+            long blockEnd = blockCount == 0 ? 0 : lastBlock + BLOCK_HEADER_SIZE + blockSize(blockCount - 1);
+            if (blockCount == 0 || blockEnd - writeOffset < MAX_VARINT_SIZE) {
+                long block = allocateBlock(blockSize(blockCount));
+                if (blockCount == 0) {
+                    lists.set(ValueLayout.JAVA_LONG, list + FIRST_BLOCK_OFFSET, block);
+                } else {
+                    blocks.set(ValueLayout.JAVA_LONG, lastBlock, block);
+                }
+                lists.set(ValueLayout.JAVA_LONG, list + LAST_BLOCK_OFFSET, block);
+                lists.set(ValueLayout.JAVA_INT, list + BLOCK_COUNT_OFFSET, blockCount + 1);
+                writeOffset = block + BLOCK_HEADER_SIZE;
+            }
+
+            while ((delta & ~0x7F) != 0) {
+                blocks.set(ValueLayout.JAVA_BYTE, writeOffset++, (byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            blocks.set(ValueLayout.JAVA_BYTE, writeOffset++, (byte) delta);
+
+            lists.set(ValueLayout.JAVA_LONG, list + WRITE_OFFSET_OFFSET, writeOffset);
+            lists.set(ValueLayout.JAVA_INT, list + LAST_ROW_OFFSET, row);
+            lists.set(ValueLayout.JAVA_INT, list + ROW_COUNT_OFFSET, rowCount + 1);
+        }
+
+        private static int blockSize(int blockIndex) {
+            return MIN_BLOCK_SIZE << Math.min(blockIndex, Integer.numberOfTrailingZeros(MAX_BLOCK_SIZE / MIN_BLOCK_SIZE));
+        }
+
+        /**
+         * Allocate a zeroed block. Blocks are padded to 8 bytes so that the next-block offsets are aligned.
+         */
+        private long allocateBlock(int size) {
+            long needed = BLOCK_HEADER_SIZE + size;
+            if (blocksByteSize + needed > blocks.byteSize()) {
+                long newCapacity = blocks.byteSize() * 2;
+                while (newCapacity < blocksByteSize + needed) newCapacity *= 2;
+                MemorySegment grown = allocator.allocate(newCapacity, ValueLayout.JAVA_LONG.byteAlignment());
+                MemorySegment.copy(blocks, 0, grown, 0, blocksByteSize);
+                blocks = grown;
+            }
+            long block = blocksByteSize;
+            blocksByteSize += needed;
+            return block;
+        }
+
+        /**
+         * Find the posting list header for the gram. If there isn't one, create it or return -1.
+         */
+        private long listOffset(int gram, boolean create) {
+            long slot = spread(gram) & mask;
+            while (true) {
+                long entry = slots.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                if (entry == EMPTY) break;
+                if ((int) (entry >>> 32) == gram) return ((entry & 0xFFFF_FFFFL) - 1) * LIST.byteSize();
+                slot = (slot + 1) & mask;
+            }
+            if (!create) return -1;
+
+            if (listCount == lists.byteSize() / LIST.byteSize()) {
+                MemorySegment grown = allocator.allocate(lists.byteSize() * 2, LIST.byteAlignment());
+                MemorySegment.copy(lists, 0, grown, 0, lists.byteSize());
+                lists = grown;
+            }
+            int listNumber = listCount++;
+            long list = listNumber * LIST.byteSize();
+            lists.set(ValueLayout.JAVA_INT, list + GRAM_OFFSET, gram);
+            slots.setAtIndex(ValueLayout.JAVA_LONG, slot, ((long) gram << 32) | (listNumber + 1L));
+            if (listCount > (mask + 1) * MAX_LOAD_FACTOR) resize();
+            return list;
+        }
+
+        private void resize() {
+            MemorySegment oldSlots = slots;
+            long oldCapacity = mask + 1;
+            allocateSlots(oldCapacity * 2);
+            for (long i = 0; i < oldCapacity; i++) {
+                long entry = oldSlots.getAtIndex(ValueLayout.JAVA_LONG, i);
+                if (entry == EMPTY) continue;
+                long slot = spread((int) (entry >>> 32)) & mask;
+                while (slots.getAtIndex(ValueLayout.JAVA_LONG, slot) != EMPTY) slot = (slot + 1) & mask;
+                slots.setAtIndex(ValueLayout.JAVA_LONG, slot, entry);
+            }
+        }
+
+        private void allocateSlots(long capacity) {
+            // Segments allocated by an arena are zeroed, so every slot starts out empty.
+            slots = allocator.allocateArray(ValueLayout.JAVA_LONG, capacity);
+            mask = capacity - 1;
+        }
+
+        private static int gram(MemorySegment segment, long offset) {
+            return (Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, offset)) << 16)
+                   | (Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, offset + 1)) << 8)
+                   | Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, offset + 2));
+        }
+
+        /**
+         * Spread the bits of the gram. This is the finalizer step of MurmurHash3.
+         */
+        private static long spread(int gram) {
+            int h = gram;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h & 0xFFFF_FFFFL;
+        }
+    }
+
+    /**
+     * Find the literal factors of a regex: the runs of plain characters that every match must contain.
+     * <p>
+     * This is conservative. When in doubt, a character breaks the current run instead of being added to it, because a
+     * missing factor only costs some speed but a wrong factor would lose matches. A character followed by {@code ?},
+     * {@code *} or {@code {}} might not be there at all, so it is dropped. A character followed by {@code +} is there
+     * at least once, so it ends the run. Groups and character classes are skipped. A regex with an alternation
+     * ({@code |}) or with inline flags (like {@code (?i)}) gets no factors at all, because the factors on one side of
+     * the alternation aren't required by the other, and flags can change what a character matches. So does a regex
+     * with a multi-character escape whose end is hard to find, like {@code \x4A}, {@code \u004A}, {@code \0112},
+     * {@code \cJ} or {@code \k<name>}, because the rest of the escape would otherwise be taken for literal text.
+     */
+    static List<String> literalFactors(String regex) {
+        var factors = new ArrayList<String>();
+        if (regex.contains("|") || regex.contains("(?") || regex.contains("\\Q")) return factors;
+
+        var run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            char literal;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                i += 2;
+                if ("xu0ck".indexOf(escaped) >= 0) return new ArrayList<>();
+                if (Character.isLetterOrDigit(escaped)) {
+                    // A class like \d, a boundary like \b or a back reference like \1. A back reference can have more
+                    // than one digit.
+                    endRun(run, factors);
+                    if (Character.isDigit(escaped)) {
+                        while (i < regex.length() && Character.isDigit(regex.charAt(i))) i++;
+                    }
+                    continue;
+                }
+                literal = escaped;
+            } else if (c == '[') {
+                endRun(run, factors);
+                i = skipCharacterClass(regex, i);
+                continue;
+            } else if (c == '(') {
+                endRun(run, factors);
+                i = skipGroup(regex, i);
+                continue;
+            } else if (c == '{') {
+                endRun(run, factors);
+                int close = regex.indexOf('}', i);
+                i = close == -1 ? regex.length() : close + 1;
+                continue;
+            } else if (".^$)*+?".indexOf(c) >= 0) {
+                endRun(run, factors);
+                i++;
+                continue;
+            } else {
+                literal = c;
+                i++;
+            }
+
+            char next = i < regex.length() ? regex.charAt(i) : 0;
+            if (next == '?' || next == '*' || next == '{') {
+                endRun(run, factors);
+            } else if (next == '+') {
+                run.append(literal);
+                endRun(run, factors);
+            } else {
+                run.append(literal);
+            }
+        }
+        endRun(run, factors);
+        return factors;
+    }
+
+    private static void endRun(StringBuilder run, List<String> factors) {
+        if (!run.isEmpty()) factors.add(run.toString());
+        run.setLength(0);
+    }
+
+    /**
+     * Return the index just past the character class that starts at the given index.
+     */
+    private static int skipCharacterClass(String regex, int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+                // A ']' right after the opening '[' (or '[^') is a literal.
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') i++;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') i++;
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regex.length();
+    }
+
+    /**
+     * Return the index just past the group that starts at the given index.
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = skipCharacterClass(regex, i) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return regex.length();
+    }
+
+    /**
+     * Generate a made-up name out of random syllables, like "Tokaruvi".
+     */
+    private static String randomName(Random random) {
+        String[] consonants = {"b", "d", "f", "g", "k", "l", "m", "n", "p", "r", "s", "t", "v", "z", "sh", "ch"};
+        String[] vowels = {"a", "e", "i", "o", "u"};
+        var name = new StringBuilder();
+        int syllables = 2 + random.nextInt(4);
+        for (int i = 0; i < syllables; i++) {
+            name.append(consonants[random.nextInt(consonants.length)]).append(vowels[random.nextInt(vowels.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    /**
+     * Build a large table of made-up names, and compare searches with the index to full scans. The best of several
+     * rounds is reported for each search.
+     */
+    static void benchmark() {
+        int rows = 5_000_000;
+        int rounds = 5;
+        var random = new Random(0);
+        var names = new String[rows];
+        for (int i = 0; i < rows; i++) names[i] = randomName(random);
+
+        try (Arena arena = Arena.ofConfined()) {
+            var table = new Table(arena, 1_024);
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                table.append(i, names[i]);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            TrigramIndex index = table.index();
+            long dataBytes = table.collection().byteSize();
+            out.printf("Appended and indexed %,d rows in %,.0f ms (%,.0f rows/s)%n", rows, elapsed / 1e6, rows / (elapsed / 1e9));
+            out.printf("Collection: %,d bytes. Index: %,d bytes (%.0f%% of the collection) for %,d distinct trigrams, of which %,d bytes are posting list data%n",
+                    dataBytes, index.byteSize(), 100.0 * index.byteSize() / dataBytes, index.gramCount(), index.postingByteSize());
+
+            out.printf("Reporting the best of %d rounds.%n", rounds);
+            for (String substring : List.of("shishi", "Zuzuzu", "kachu")) {
+                long[] matches = new long[1];
+                long candidates = 0;
+                long indexed = Long.MAX_VALUE, scanned = Long.MAX_VALUE;
+                for (int i = 0; i < rounds + 1; i++) { // +1 for a warm-up round
+                    matches[0] = 0;
+                    start = System.nanoTime();
+                    candidates = table.forEachSubstringMatch(substring, row -> matches[0]++);
+                    if (i > 0) indexed = Math.min(indexed, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    table.scan(table.new SubstringVerifier(substring.getBytes(StandardCharsets.UTF_8)), row -> {});
+                    if (i > 0) scanned = Math.min(scanned, System.nanoTime() - start);
+                }
+                out.printf("substring %-10s %,8d matches, %,8d candidates. indexed %8.2f ms, full scan %8.2f ms%n",
+                        "\"" + substring + "\"", matches[0], candidates, indexed / 1e6, scanned / 1e6);
+            }
+
+            for (String regex : List.of("^Zu.*shi$", "kachu[a-z]*ma$")) {
+                var pattern = Pattern.compile(regex);
+                long[] matches = new long[1];
+                long candidates = 0;
+                long indexed = Long.MAX_VALUE, scanned = Long.MAX_VALUE;
+                for (int i = 0; i < rounds + 1; i++) {
+                    matches[0] = 0;
+                    start = System.nanoTime();
+                    candidates = table.forEachRegexMatch(pattern, row -> matches[0]++);
+                    if (i > 0) indexed = Math.min(indexed, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    table.scan(table.new RegexVerifier(pattern), row -> {});
+                    if (i > 0) scanned = Math.min(scanned, System.nanoTime() - start);
+                }
+                out.printf("regex %-14s %,8d matches, %,8d candidates. indexed %8.2f ms, full scan %8.2f ms%n",
+                        "\"" + regex + "\"", matches[0], candidates, indexed / 1e6, scanned / 1e6);
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.*;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import static java.lang.System.out;
+
+/**
+ * This is a single-file Java program that scans foreign memory with SIMD instructions using the incubating
+ * <a href="https://openjdk.org/jeps/448">Vector API</a>.
+ * <p>
+ * The Vector API is an incubator module, so it has to be added explicitly. This program can be built and run with the
+ * `java` command using Java 21. Do so like this:
+ *
+ * <pre>
+ *     java --enable-preview --add-modules jdk.incubator.vector --source 21 VectorScanDemo.java
+ * </pre>
+ * <p>
+ * The program output is something like the following (the warning comes from the JVM because the Vector API is an
+ * incubator module):
+ * <pre>
+ *     WARNING: Using incubator modules: jdk.incubator.vector
+ *     Vector shapes: 32 bytes per ByteVector, 8 ints per IntVector
+ *     IDs in [2, 3]: 2 (scalar: 2)
+ *     Names starting with "Ja": 1 (scalar: 1)
+ *     Messages equal to "there": 1 (scalar: 1)
+ *     Newlines in "hello\nthere\nworld\n": 3 (scalar: 3)
+ * </pre>
+ * <p>
+ * The kernels load vectors straight out of a {@link MemorySegment} with {@link IntVector#fromMemorySegment} and
+ * {@link ByteVector#fromMemorySegment}. There is no copying to a Java array first. The data is the same as in the other
+ * programs in this directory:
+ *
+ * <pre>
+ *     * An ID range filter over a contiguous column of ids (like the ids column in {@code ColumnarDemo}).
+ *     * A name prefix filter over the rows of the jagged layout from {@code JaggedSteppingWindowDemo}. The row headers
+ *       are stepped through one at a time, and the name bytes are compared a whole vector at a time.
+ *     * An equality filter over fixed-width messages: 6-byte slots that each hold 5 ASCII bytes and a null
+ *       terminator.
+ *     * A count of a byte value, like '\n', over a run of bytes.
+ * </pre>
+ * <p>
+ * Each kernel has a scalar twin that does the same thing one element at a time. Compare their throughput with:
+ *
+ * <pre>
+ *     java --enable-preview --add-modules jdk.incubator.vector --source 21 VectorScanDemo.java benchmark
+ * </pre>
+ */
+public class VectorScanDemo {
+
+    static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    record ProgrammingLanguage(int id, String name) {}
+
+    private static final List<ProgrammingLanguage> PROGRAMMING_LANGUAGES = List.of(
+            new ProgrammingLanguage(1, "C"),
+            new ProgrammingLanguage(2, "Java"),
+            new ProgrammingLanguage(3, "Go"));
+
+    private static final List<String> FIVE_CHARACTER_ASCII_MESSAGES = List.of("hello", "there", "world");
+
+    // The jagged row format. This is the same as in JaggedSteppingWindowDemo.
+    static final StructLayout STRUCT = MemoryLayout.structLayout(
+                    ValueLayout.JAVA_INT.withName("id"),
+                    ValueLayout.JAVA_SHORT.withName("nameLength"))
+            .withName("programmingLanguages");
+    static final long ID_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+    static final long NAME_LENGTH_OFFSET = STRUCT.byteOffset(MemoryLayout.PathElement.groupElement("nameLength"));
+
+    // The fixed-width message format: each 6-byte slot holds 5 ASCII bytes and a null terminator.
+    static final long MESSAGE_SIZE = 6;
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+            return;
+        }
+
+        out.printf("Vector shapes: %d bytes per ByteVector, %d ints per IntVector%n", BYTES.length(), INTS.length());
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment ids = arena.allocateArray(ValueLayout.JAVA_INT, PROGRAMMING_LANGUAGES.stream().mapToInt(ProgrammingLanguage::id).toArray());
+            out.printf("IDs in [2, 3]: %d (scalar: %d)%n", countIdsBetween(ids, 2, 3), countIdsBetweenScalar(ids, 2, 3));
+
+            MemorySegment jagged = writeJagged(arena, PROGRAMMING_LANGUAGES);
+            MemorySegment prefix = arena.allocateArray(ValueLayout.JAVA_BYTE, "Ja".getBytes(StandardCharsets.UTF_8));
+            out.printf("Names starting with \"Ja\": %d (scalar: %d)%n", countNamesWithPrefix(jagged, prefix), countNamesWithPrefixScalar(jagged, prefix));
+
+            MemorySegment messages = writeMessages(arena, FIVE_CHARACTER_ASCII_MESSAGES);
+            MemorySegment there = arena.allocateUtf8String("there");
+            out.printf("Messages equal to \"there\": %d (scalar: %d)%n", countMessagesEqualTo(messages, there), countMessagesEqualToScalar(messages, there));
+
+            String text = String.join("\n", FIVE_CHARACTER_ASCII_MESSAGES) + "\n";
+            MemorySegment textSegment = arena.allocateArray(ValueLayout.JAVA_BYTE, text.getBytes(StandardCharsets.UTF_8));
+            out.printf("Newlines in \"%s\": %d (scalar: %d)%n", text.replace("\n", "\\n"), countByte(textSegment, (byte) '\n'), countByteScalar(textSegment, (byte) '\n'));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Vector kernels
+    // ---------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Count the ints in the inclusive range [min, max]. The segment is a contiguous array of ints.
+     */
+    static long countIdsBetween(MemorySegment ids, int min, int max) {
+        long count = 0;
+        long length = ids.byteSize() / ValueLayout.JAVA_INT.byteSize();
+        long i = 0;
+        for (long upperBound = INTS.loopBound(length); i < upperBound; i += INTS.length()) {
+            var v = IntVector.fromMemorySegment(INTS, ids, i * ValueLayout.JAVA_INT.byteSize(), ORDER);
+            count += v.compare(VectorOperators.GE, min).and(v.compare(VectorOperators.LE, max)).trueCount();
+        }
+        for (; i < length; i++) {
+            int id = ids.getAtIndex(ValueLayout.JAVA_INT, i);
+            if (id >= min && id <= max) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Count the occurrences of the byte value.
+     */
+    static long countByte(MemorySegment bytes, byte value) {
+        long count = 0;
+        long length = bytes.byteSize();
+        long i = 0;
+        for (long upperBound = BYTES.loopBound(length); i < upperBound; i += BYTES.length()) {
+            count += ByteVector.fromMemorySegment(BYTES, bytes, i, ORDER).eq(value).trueCount();
+        }
+        for (; i < length; i++) {
+            if (bytes.get(ValueLayout.JAVA_BYTE, i) == value) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Are the {@code length} bytes of the segment starting at the offset equal to the first {@code length} bytes of the
+     * pattern? The last, partial, vector is loaded with a mask so that it never reads past the end of either segment.
+     */
+    static boolean regionEquals(MemorySegment segment, long offset, MemorySegment pattern, long length) {
+        long i = 0;
+        for (long upperBound = BYTES.loopBound(length); i < upperBound; i += BYTES.length()) {
+            var a = ByteVector.fromMemorySegment(BYTES, segment, offset + i, ORDER);
+            var b = ByteVector.fromMemorySegment(BYTES, pattern, i, ORDER);
+            if (a.compare(VectorOperators.NE, b).anyTrue()) return false;
+        }
+        if (i < length) {
+            VectorMask<Byte> mask = BYTES.indexInRange(i, length);
+            var a = ByteVector.fromMemorySegment(BYTES, segment, offset + i, ORDER, mask);
+            var b = ByteVector.fromMemorySegment(BYTES, pattern, i, ORDER, mask);
+            return !a.compare(VectorOperators.NE, b, mask).anyTrue();
+        }
+        return true;
+    }
+
+    /**
+     * Count the rows of the jagged collection whose names start with the prefix.
+     */
+    static long countNamesWithPrefix(MemorySegment jagged, MemorySegment prefix) {
+        long count = 0;
+        long prefixLength = prefix.byteSize();
+        for (long offset = 0; offset < jagged.byteSize(); ) {
+            short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+            if (nameLength >= prefixLength && regionEquals(jagged, offset + STRUCT.byteSize(), prefix, prefixLength)) {
+                count++;
+            }
+            offset += jaggedRowSize(nameLength);
+        }
+        return count;
+    }
+
+    /**
+     * Count the fixed-width messages equal to the given message. The message segment includes its null terminator, so
+     * that "hell" doesn't match "hello".
+     */
+    static long countMessagesEqualTo(MemorySegment messages, MemorySegment message) {
+        long count = 0;
+        for (long offset = 0; offset < messages.byteSize(); offset += MESSAGE_SIZE) {
+            if (regionEquals(messages, offset, message, message.byteSize())) count++;
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Scalar kernels. These do the same thing as the vector kernels, but one element at a time.
+    // ---------------------------------------------------------------------------------------------------------------
+
+    static long countIdsBetweenScalar(MemorySegment ids, int min, int max) {
+        long count = 0;
+        long length = ids.byteSize() / ValueLayout.JAVA_INT.byteSize();
+        for (long i = 0; i < length; i++) {
+            int id = ids.getAtIndex(ValueLayout.JAVA_INT, i);
+            if (id >= min && id <= max) count++;
+        }
+        return count;
+    }
+
+    static long countByteScalar(MemorySegment bytes, byte value) {
+        long count = 0;
+        for (long i = 0; i < bytes.byteSize(); i++) {
+            if (bytes.get(ValueLayout.JAVA_BYTE, i) == value) count++;
+        }
+        return count;
+    }
+
+    static boolean regionEqualsScalar(MemorySegment segment, long offset, MemorySegment pattern, long length) {
+        for (long i = 0; i < length; i++) {
+            if (segment.get(ValueLayout.JAVA_BYTE, offset + i) != pattern.get(ValueLayout.JAVA_BYTE, i)) return false;
+        }
+        return true;
+    }
+
+    static long countNamesWithPrefixScalar(MemorySegment jagged, MemorySegment prefix) {
+        long count = 0;
+        long prefixLength = prefix.byteSize();
+        for (long offset = 0; offset < jagged.byteSize(); ) {
+            short nameLength = jagged.get(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET);
+            if (nameLength >= prefixLength && regionEqualsScalar(jagged, offset + STRUCT.byteSize(), prefix, prefixLength)) {
+                count++;
+            }
+            offset += jaggedRowSize(nameLength);
+        }
+        return count;
+    }
+
+    static long countMessagesEqualToScalar(MemorySegment messages, MemorySegment message) {
+        long count = 0;
+        for (long offset = 0; offset < messages.byteSize(); offset += MESSAGE_SIZE) {
+            if (regionEqualsScalar(messages, offset, message, message.byteSize())) count++;
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    // Data
+    // ---------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Write the programming languages in the jagged layout. See {@code JaggedSteppingWindowDemo} for a detailed
+     * explanation of the layout.
+     */
+    static MemorySegment writeJagged(Arena arena, List<ProgrammingLanguage> languages) {
+        byte[][] names = new byte[languages.size()][];
+        long totalBytesNeeded = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            names[i] = languages.get(i).name.getBytes(StandardCharsets.UTF_8);
+            if (names[i].length > Short.MAX_VALUE)
+                throw new RuntimeException("The string is too long to express its length as a short.");
+            totalBytesNeeded += jaggedRowSize(names[i].length);
+        }
+
+        MemorySegment jagged = arena.allocate(totalBytesNeeded);
+        long offset = 0;
+        for (int i = 0; i < languages.size(); i++) {
+            jagged.set(ValueLayout.JAVA_INT_UNALIGNED, offset + ID_OFFSET, languages.get(i).id);
+            jagged.set(ValueLayout.JAVA_SHORT_UNALIGNED, offset + NAME_LENGTH_OFFSET, (short) names[i].length);
+            MemorySegment.copy(names[i], 0, jagged, ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize(), names[i].length);
+            jagged.set(ValueLayout.JAVA_BYTE, offset + STRUCT.byteSize() + names[i].length, (byte) 0);
+            offset += jaggedRowSize(names[i].length);
+        }
+        return jagged;
+    }
+
+    static long jaggedRowSize(long nameLength) {
+        return STRUCT.byteSize() + nameLength + 1; // +1 for the null terminator
+    }
+
+    /**
+     * Write the messages in the fixed-width layout, one null-terminated message per {@link #MESSAGE_SIZE}-byte slot.
+     */
+    static MemorySegment writeMessages(Arena arena, List<String> messages) {
+        MemorySegment segment = arena.allocate(MESSAGE_SIZE * messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            segment.setUtf8String(i * MESSAGE_SIZE, messages.get(i));
+        }
+        return segment;
+    }
+
+    /**
+     * A quick-and-dirty benchmark of each vector kernel against its scalar twin. The best of several rounds is reported
+     * for each.
+     */
+    static void benchmark() {
+        int rows = 10_000_000;
+        var random = new Random(0);
+        String[] names = {"C", "Java", "Go", "Rust", "Kotlin", "Haskell", "TypeScript", "JavaScript"};
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment ids = arena.allocateArray(ValueLayout.JAVA_INT, rows);
+            for (int i = 0; i < rows; i++) ids.setAtIndex(ValueLayout.JAVA_INT, i, random.nextInt(1_000));
+
+            var languages = new ProgrammingLanguage[rows];
+            for (int i = 0; i < rows; i++) languages[i] = new ProgrammingLanguage(i, names[i % names.length]);
+            MemorySegment jagged = writeJagged(arena, List.of(languages));
+            MemorySegment prefix = arena.allocateArray(ValueLayout.JAVA_BYTE, "JavaS".getBytes(StandardCharsets.UTF_8));
+
+            String[] words = {"hello", "there", "world"};
+            var messageList = new String[rows];
+            for (int i = 0; i < rows; i++) messageList[i] = words[random.nextInt(words.length)];
+            MemorySegment messages = writeMessages(arena, List.of(messageList));
+            MemorySegment there = arena.allocateUtf8String("there");
+
+            // Random bytes with roughly one newline every 64 bytes, like short lines of text.
+            MemorySegment text = arena.allocate(64 * 1024 * 1024);
+            for (long i = 0; i < text.byteSize(); i++) {
+                text.set(ValueLayout.JAVA_BYTE, i, random.nextInt(64) == 0 ? (byte) '\n' : (byte) ('a' + random.nextInt(26)));
+            }
+
+            out.printf("Vector shapes: %d bytes per ByteVector, %d ints per IntVector%n", BYTES.length(), INTS.length());
+            report("ID range filter", ids.byteSize(), () -> countIdsBetweenScalar(ids, 100, 199), () -> countIdsBetween(ids, 100, 199));
+            report("name prefix filter", jagged.byteSize(), () -> countNamesWithPrefixScalar(jagged, prefix), () -> countNamesWithPrefix(jagged, prefix));
+            report("message equality", messages.byteSize(), () -> countMessagesEqualToScalar(messages, there), () -> countMessagesEqualTo(messages, there));
+            report("newline count", text.byteSize(), () -> countByteScalar(text, (byte) '\n'), () -> countByte(text, (byte) '\n'));
+        }
+    }
+
+    private static void report(String name, long byteSize, LongSupplier scalar, LongSupplier vector) {
+        long scalarNanos = best(scalar);
+        long vectorNanos = best(vector);
+        if (scalar.getAsLong() != vector.getAsLong())
+            throw new IllegalStateException("The scalar and vector kernels disagree for '%s'".formatted(name));
+
+        out.printf("%-20s scalar %,8.0f MiB/s   vector %,8.0f MiB/s   (%.1fx)%n", name,
+                mibPerSecond(byteSize, scalarNanos), mibPerSecond(byteSize, vectorNanos), (double) scalarNanos / vectorNanos);
+    }
+
+    private static long best(LongSupplier kernel) {
+        kernel.getAsLong(); // Warm up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            kernel.getAsLong();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static double mibPerSecond(long byteSize, long nanos) {
+        return byteSize / (nanos / 1e9) / (1024 * 1024);
+    }
+}
@@ -12,6 +12,13 @@ application {
     mainClass.set("dgroomes.memory_leak.Runner")
 }
 
+/**
+ * The JVM options for running the program. The virtual thread scheduler parallelism is raised so that the 'parallel'
+ * scan modes can have many blocking downcalls in flight at once. This is the only place the value is defined. The
+ * ParallelScanner class documents why it's needed.
+ */
+val runJvmArgs = listOf("--enable-preview", "--enable-native-access=ALL-UNNAMED", "-Djdk.virtualThreadScheduler.parallelism=64")
+
 /**
  * Configure the compiler task, test task, start script creation task, and the run task to enable Java language "Preview
  * Features" so we can access the Foreign Function and Memory Access APIs which are in preview.
@@ -22,10 +29,10 @@ tasks {
     }
 
     named<CreateStartScripts>("startScripts") {
-        defaultJvmOpts = listOf("--enable-preview", "--enable-native-access=ALL-UNNAMED")
+        defaultJvmOpts = runJvmArgs
     }
 
     named<JavaExec>("run") {
-        jvmArgs = listOf("--enable-preview", "--enable-native-access=ALL-UNNAMED")
+        jvmArgs = runJvmArgs
     }
 }
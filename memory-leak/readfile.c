@@ -2,6 +2,34 @@
 #include <stdlib.h>
 #include <stdio.h>
 #include <string.h>
+#include <stdint.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+/*
+ * The size of the stack chunk that read_file_into reads through when the caller doesn't give a buffer. It's kept small
+ * because the function can run on many threads at once, including the carrier threads of virtual threads.
+ */
+#define READ_CHUNK_SIZE (4 * 1024)
+
+static long count_newlines(const char* content, long size) {
+    long newlines = 0;
+    for (long i = 0; i < size; i++) {
+        if (content[i] == '\n') newlines++;
+    }
+    return newlines;
+}
+
+/**
+ * Count the number of lines in the content. A non-empty file has at least one line by definition.
+ */
+static int count_lines(const char* content, long size) {
+    // This is the "empty file" case.
+    if (size == 0) return 0;
+
+    return 1 + count_newlines(content, size);
+}
 
 struct file_data* read_file(char* name, long max_size) {
     struct file_data* f = (struct file_data*) malloc(sizeof(struct file_data));
@@ -44,19 +72,201 @@ struct file_data* read_file(char* name, long max_size) {
     f->content[size] = '\0';  // Null-terminate the string
     f->bytes = size;
 
-    // Count the number of lines
-    if (size == 0) {
-        // This is the "empty file" case.
-        f->lines = 0;
-    } else {
-        // A non-empty file has at least one line by definition.
-        f->lines = 1;
-        for (int i = 0; i < size; i++) {
-            if (f->content[i] == '\n') f->lines++;
+    f->lines = count_lines(f->content, size);
+
+    fclose(file);
+    return f;
+}
+
+int read_file_into(char* name, long max_size, struct file_data* f, char* buffer, long buffer_size) {
+    f->name = name;
+    f->content = NULL;
+    f->lines = -1;
+    f->bytes = -1;
+
+    // Use the plain file descriptor functions instead of the stdio ones. fopen allocates a FILE and its buffer, and
+    // this function must not allocate anything.
+    int fd = open(name, O_RDONLY);
+    if (fd == -1) {
+        return -1;  // File open failed
+    }
+
+    // If the caller gave a buffer, read the content into it. Otherwise, read through a chunk on the stack and only
+    // count the newlines.
+    char chunk[READ_CHUNK_SIZE];
+    int keep = buffer != NULL;
+    long limit = keep && buffer_size < max_size ? buffer_size : max_size;
+    long size = 0;
+    long newlines = 0;
+    ssize_t n = 0;
+    while (size < limit) {
+        char* dest = keep ? buffer + size : chunk;
+        long want = keep ? limit - size : (limit - size < READ_CHUNK_SIZE ? limit - size : READ_CHUNK_SIZE);
+        n = read(fd, dest, want);
+        if (n <= 0) break;
+        newlines += count_newlines(dest, n);
+        size += n;
+    }
+    close(fd);
+    if (n == -1) {
+        return -1;  // File read failed
+    }
+
+    if (keep) f->content = buffer;
+    f->bytes = size;
+    // A non-empty file has at least one line by definition.
+    f->lines = size == 0 ? 0 : 1 + newlines;
+    return 0;
+}
+
+int read_files(char** names, int count, long max_size, struct file_data* results) {
+    if (names == NULL || results == NULL || count < 0) {
+        return -1;  // Invalid arguments
+    }
+
+    int succeeded = 0;
+    for (int i = 0; i < count; i++) {
+        if (read_file_into(names[i], max_size, &results[i], NULL, 0) == 0) succeeded++;
+    }
+    return succeeded;
+}
+
+/**
+ * A block of memory in a region. The blocks are chained so that the region can free them all.
+ */
+struct region_block {
+    struct region_block* next;
+    long size;
+    long used;
+    char data[];
+};
+
+struct region {
+    long block_size;
+    struct region_block* head;  // The block that allocations are bumped from. It links to the older blocks.
+};
+
+#define REGION_ALIGNMENT 16
+
+static struct region_block* region_new_block(long size, struct region_block* next) {
+    struct region_block* block = (struct region_block*) malloc(sizeof(struct region_block) + size);
+    if (block == NULL) {
+        return NULL;  // Memory allocation failed
+    }
+    block->next = next;
+    block->size = size;
+    block->used = 0;
+    return block;
+}
+
+/**
+ * The offset in the block's data where the next allocation starts, so that its address is aligned to REGION_ALIGNMENT.
+ * The address is aligned, not the offset, because the data doesn't necessarily start at an aligned address.
+ */
+static long region_aligned_offset(struct region_block* block) {
+    uintptr_t next = (uintptr_t) (block->data + block->used);
+    uintptr_t aligned = (next + REGION_ALIGNMENT - 1) & ~(uintptr_t) (REGION_ALIGNMENT - 1);
+    return block->used + (long) (aligned - next);
+}
+
+/**
+ * Allocate from the region by bumping the offset in the current block. Start a new block when the current one is full.
+ */
+static void* region_alloc(struct region* r, long size) {
+    long offset = region_aligned_offset(r->head);
+    if (offset + size > r->head->size) {
+        // Leave room to align the start of the new block's data, too.
+        long needed = size + REGION_ALIGNMENT - 1;
+        long block_size = needed > r->block_size ? needed : r->block_size;
+        struct region_block* block = region_new_block(block_size, r->head);
+        if (block == NULL) {
+            return NULL;  // Memory allocation failed
         }
+        r->head = block;
+        offset = region_aligned_offset(block);
     }
+    r->head->used = offset + size;
+    return r->head->data + offset;
+}
 
-    fclose(file);
+struct region* region_create(long block_size) {
+    struct region* r = (struct region*) malloc(sizeof(struct region));
+    if (r == NULL) {
+        return NULL;  // Memory allocation failed
+    }
+    r->block_size = block_size;
+    r->head = region_new_block(block_size, NULL);
+    if (r->head == NULL) {
+        free(r);
+        return NULL;  // Memory allocation failed
+    }
+    return r;
+}
+
+void region_reset(struct region* r) {
+    // Free all the blocks but the first one, and rewind it. The first one is the last in the chain.
+    while (r->head->next != NULL) {
+        struct region_block* next = r->head->next;
+        free(r->head);
+        r->head = next;
+    }
+    r->head->used = 0;
+}
+
+void region_free(struct region* r) {
+    if (r == NULL) return;
+    region_reset(r);
+    free(r->head);
+    free(r);
+}
+
+struct file_data* read_file_in_region(struct region* r, char* name, long max_size) {
+    struct file_data* f = (struct file_data*) region_alloc(r, sizeof(struct file_data));
+    if (f == NULL) {
+        return NULL;  // Memory allocation failed
+    }
+
+    long name_size = strlen(name) + 1;
+    f->name = (char*) region_alloc(r, name_size);
+    if (f->name == NULL) {
+        return NULL;  // Memory allocation failed
+    }
+    memcpy(f->name, name, name_size);
+
+    // Use the plain file descriptor functions instead of the stdio ones, because fopen mallocs a FILE.
+    int fd = open(name, O_RDONLY);
+    if (fd == -1) {
+        return NULL;  // File open failed
+    }
+
+    // Find file size, and cap it to max_size
+    struct stat st;
+    if (fstat(fd, &st) == -1) {
+        close(fd);
+        return NULL;  // File stat failed
+    }
+    long size = st.st_size < max_size ? st.st_size : max_size;
+
+    f->content = (char*) region_alloc(r, size + 1);
+    if (f->content == NULL) {
+        close(fd);
+        return NULL;  // Memory allocation failed
+    }
+
+    // Read file content into memory. The file may have shrunk since the fstat.
+    long read_size = 0;
+    ssize_t n = 0;
+    while (read_size < size && (n = read(fd, f->content + read_size, size - read_size)) > 0) {
+        read_size += n;
+    }
+    close(fd);
+    if (n == -1) {
+        return NULL;  // File read failed
+    }
+
+    f->content[read_size] = '\0';  // Null-terminate the string
+    f->bytes = read_size;
+    f->lines = count_lines(f->content, read_size);
     return f;
 }
 
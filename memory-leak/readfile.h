@@ -21,6 +21,86 @@ struct file_data {
  */
 struct file_data* read_file(char* name, long max_size);
 
+/**
+ * Read a text file from disk into a caller-provided file_data struct. This is the version of read_file that does not
+ * allocate any memory, so there is nothing to free.
+ *
+ * The name field is set to the caller's pointer, not a copy. If a buffer is given, the content is read into it (up to
+ * the smaller of max_size and buffer_size), and the content field points to it. The content is not null-terminated. If
+ * the buffer is NULL, the content is not kept and the content field is set to NULL. Instead, the file is read through
+ * a small (4 KiB) chunk on the stack, which is safe on any thread but costs more read calls for big files. The buffer
+ * can be reused across calls.
+ *
+ * @param name Name of the file to read
+ * @param max_size Maximum size in bytes to read from the file
+ * @param f Pointer to the file_data struct to write the result into
+ * @param buffer Buffer to read the content into, or NULL
+ * @param buffer_size Size of the buffer in bytes
+ * @return 0 on success, or -1 if an error occurs. On error, the lines and bytes fields are set to -1.
+ */
+int read_file_into(char* name, long max_size, struct file_data* f, char* buffer, long buffer_size);
+
+/**
+ * Read many text files from disk in one call. This is the batch version of read_file. It amortizes the cost of the
+ * call (and of the memory allocation) across the files.
+ *
+ * The results are written into a caller-provided array of file_data structs, in the same way as read_file_into
+ * without a buffer. The content is not kept, and there is nothing to free. If a file can't be read, its result's lines
+ * and bytes are set to -1.
+ *
+ * @param names Array of the names of the files to read
+ * @param count Number of files to read
+ * @param max_size Maximum size in bytes to read from each file
+ * @param results Array of at least 'count' file_data structs to write the results into
+ * @return The number of files that were read successfully, or -1 if the arguments are invalid (a NULL array or a
+ *         negative count). A file that can't be read is not an error. It's marked in its result instead.
+ */
+int read_files(char** names, int count, long max_size, struct file_data* results);
+
+/**
+ * A region (or "arena") allocator. Memory is allocated from a region by bumping an offset in a big block, and there
+ * is no way to free a single allocation. Instead, all the memory of a region is freed at once with region_reset or
+ * region_free. This is much cheaper than a malloc and a free for each allocation, and memory can't be leaked one
+ * allocation at a time.
+ *
+ * The functions are not thread-safe. Use one region per thread.
+ */
+struct region;
+
+/**
+ * Create a region.
+ *
+ * @param block_size Size in bytes of the blocks that the region allocates from. A bigger allocation gets its own block.
+ * @return A pointer to the region, or NULL if an error occurs.
+ */
+struct region* region_create(long block_size);
+
+/**
+ * Free all the memory allocated from the region, so that the region can be reused. The first block is kept.
+ *
+ * @param r Pointer to a region
+ */
+void region_reset(struct region* r);
+
+/**
+ * Free all the memory allocated from the region and the region itself.
+ *
+ * @param r Pointer to a region
+ */
+void region_free(struct region* r);
+
+/**
+ * Read a text file from disk up to a maximum size, like read_file, but allocate the file_data, the copy of the name
+ * and the content from a region instead of with malloc. Don't call free_file_data on the result. It is freed when the
+ * region is reset or freed.
+ *
+ * @param r Pointer to the region to allocate from
+ * @param name Name of the file to read
+ * @param max_size Maximum size in bytes to read from the file
+ * @return A pointer to a file_data struct, or NULL if an error occurs.
+ */
+struct file_data* read_file_in_region(struct region* r, char* name, long max_size);
+
 /**
  * Free the memory allocated by read_file.
  *
@@ -0,0 +1,113 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.lang.System.out;
+
+/**
+ * Walk the directory tree and read the files with the C function {@code read_file}, but tie the lifetime of each
+ * returned {@code file_data} struct to an arena instead of freeing it by hand.
+ * <p>
+ * The files are read in batches of {@link #BATCH_SIZE}. Each batch gets its own arena and every struct is bound to it
+ * with {@link NativeAllocationTracker#readFile(MemorySegment, long, Arena)}. When the batch is done, closing the arena
+ * frees all of its structs (and the file name arguments) in one go. There is no {@code free_file_data} call to forget,
+ * and a struct can't be used after it's freed.
+ * <p>
+ * In parallel mode, the files of a batch are read in virtual threads, like in {@link ParallelScanner}. The batch's arena
+ * is then a shared arena, which the threads can safely allocate in and bind structs to at the same time. The arena is
+ * closed only after all the batch's threads are done. A file whose task throws is counted as a failure.
+ */
+public class ArenaBoundScanner implements DirectoryScanner {
+
+    public static final int BATCH_SIZE = 256;
+    private final NativeAllocationTracker tracker;
+    private final boolean parallel;
+
+    /**
+     * @param tracker  the tracker to call the C functions through
+     * @param parallel whether to read the files of a batch concurrently
+     */
+    public ArenaBoundScanner(NativeAllocationTracker tracker, boolean parallel) {
+        this.tracker = tracker;
+        this.parallel = parallel;
+    }
+
+    @Override
+    public boolean tracksNativeAllocations() {
+        return true;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        var files = new LongAdder();
+        var lines = new LongAdder();
+        var bytes = new LongAdder();
+        var failures = new LongAdder();
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+
+        Runnable readBatch = () -> {
+            // Closing the arena frees all the structs of the batch.
+            try (Arena arena = parallel ? Arena.ofShared() : Arena.ofConfined()) {
+                // In parallel mode, an exception would be held in the task's discarded Future and never seen. So catch
+                // everything here and count it as a failure.
+                Consumer<String> readFile = pathName -> {
+                    try {
+                        MemorySegment fileData = tracker.readFile(arena.allocateUtf8String(pathName), Runner.SAMPLE_CONTENT_LIMIT, arena);
+                        if (fileData.equals(MemorySegment.NULL)) {
+                            out.printf("Something went wrong while reading the file '%s'%n", pathName);
+                            failures.increment();
+                            return;
+                        }
+
+                        int fileLines = file_data.lines$get(fileData);
+                        long fileBytes = file_data.bytes$get(fileData);
+                        files.increment();
+                        lines.add(fileLines);
+                        bytes.add(fileBytes);
+                    } catch (Throwable t) {
+                        out.printf("Something went wrong while reading the file '%s': %s%n", pathName, t);
+                        failures.increment();
+                    }
+                };
+
+                if (parallel) {
+                    // Virtual threads are cheap, so a fresh executor per batch is fine. Closing it waits for the batch.
+                    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                        for (String pathName : batch) executor.submit(() -> readFile.accept(pathName));
+                    }
+                } else {
+                    batch.forEach(readFile);
+                }
+            }
+            batch.clear();
+        };
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                batch.add(path.toAbsolutePath().normalize().toString());
+                if (batch.size() == BATCH_SIZE) readBatch.run();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (!batch.isEmpty()) readBatch.run();
+
+        return new ScanSummary(files.sum(), lines.sum(), bytes.sum(), failures.sum());
+    }
+}
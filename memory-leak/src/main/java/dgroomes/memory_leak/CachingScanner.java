@@ -0,0 +1,120 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.System.out;
+
+/**
+ * Walk the directory tree and read only the files that have changed since they were last read, with the C function
+ * {@code read_file}. The line and byte counts of the unchanged files come from a {@link ScanCache}.
+ * <p>
+ * A file is identified by its device and inode numbers, and it is considered unchanged if its modification time and
+ * size are the same as when it was cached. So a rescan of a tree that hasn't changed is close to a metadata-only walk.
+ * The walk's file attributes don't include the inode number, so it costs one more {@code lstat} per file. That needs
+ * the "unix" file attribute view, so the directory must be on a file system that supports it.
+ * <p>
+ * The counts come from {@code read_file}, so like in the other {@code read_file} modes, only the first
+ * {@link Runner#SAMPLE_CONTENT_LIMIT} bytes of a file are counted.
+ * <p>
+ * The cache file is opened (mapped) at the start of each scan and closed (unmapped) at the end.
+ */
+public class CachingScanner implements DirectoryScanner {
+
+    private final NativeAllocationTracker tracker;
+    private final Path cacheFile;
+
+    /**
+     * @param tracker   the tracker to call the C functions through
+     * @param cacheFile the scan cache file. It is created if it doesn't exist.
+     */
+    public CachingScanner(NativeAllocationTracker tracker, Path cacheFile) {
+        this.tracker = tracker;
+        this.cacheFile = cacheFile;
+    }
+
+    @Override
+    public boolean tracksNativeAllocations() {
+        return true;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            throw new IOException("The 'cached' scan mode identifies files by their device and inode numbers, but the file system of '%s' doesn't have them (no \"unix\" file attribute view).".formatted(dir));
+        }
+
+        var totals = new Object() {
+            long files;
+            long lines;
+            long bytes;
+            long failures;
+            long cached;
+        };
+
+        try (var cache = ScanCache.open(cacheFile); Arena arena = Arena.ofConfined()) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    Map<String, Object> unixAttrs;
+                    try {
+                        unixAttrs = Files.readAttributes(path, "unix:dev,ino", LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        out.printf("Something went wrong while reading the attributes of the file '%s': %s%n", path, e.getMessage());
+                        totals.failures++;
+                        return FileVisitResult.CONTINUE;
+                    }
+                    long dev = (Long) unixAttrs.get("dev");
+                    long inode = (Long) unixAttrs.get("ino");
+                    long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                    long size = attrs.size();
+
+                    long slot = cache.slotOf(dev, inode, mtime, size);
+                    if (slot != -1) {
+                        totals.cached++;
+                        totals.files++;
+                        totals.lines += cache.lines(slot);
+                        totals.bytes += cache.bytes(slot);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    var pathName = path.toAbsolutePath().normalize().toString();
+                    MemorySegment fileData = tracker.readFile(arena.allocateUtf8String(pathName), Runner.SAMPLE_CONTENT_LIMIT);
+                    if (fileData.equals(MemorySegment.NULL)) {
+                        out.printf("Something went wrong while reading the file '%s'%n", pathName);
+                        totals.failures++;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    int lines = file_data.lines$get(fileData);
+                    long bytes = file_data.bytes$get(fileData);
+                    tracker.freeFileData(fileData);
+                    cache.put(dev, inode, mtime, size, lines, bytes);
+
+                    totals.files++;
+                    totals.lines += lines;
+                    totals.bytes += bytes;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            out.printf("Read %,d new or changed files. Took %,d files from the scan cache (%,d entries in '%s').%n",
+                    totals.files - totals.cached, totals.cached, cache.size(), cacheFile);
+        }
+
+        return new ScanSummary(totals.files, totals.lines, totals.bytes, totals.failures);
+    }
+}
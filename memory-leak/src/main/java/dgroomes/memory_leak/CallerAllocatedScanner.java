@@ -0,0 +1,92 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+import dgroomes.memory_leak.bindings.readfile_h;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.out;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+
+/**
+ * Walk the directory tree and read one file at a time with the C function {@code read_file_into}.
+ * <p>
+ * The C side allocates nothing. Java allocates a single {@code file_data} struct, a file name buffer and (optionally) a
+ * content buffer in an arena at the start of the scan, and every call reuses them. So there is no per-file
+ * {@code malloc}/{@code free} churn, and there is no {@code free_file_data} call to forget: the memory leak in the
+ * sequential scanner is not possible here. Closing the arena at the end of the scan frees everything.
+ */
+public class CallerAllocatedScanner implements DirectoryScanner {
+
+    private static final long INITIAL_NAME_BUFFER_SIZE = 4_096;
+    private final boolean keepContent;
+
+    /**
+     * @param keepContent whether to read the file content into a reusable buffer. If not, the C side only counts the
+     *                    lines and bytes.
+     */
+    public CallerAllocatedScanner(boolean keepContent) {
+        this.keepContent = keepContent;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            var state = new Object() {
+                long files;
+                long lines;
+                long bytes;
+                long failures;
+                MemorySegment nameBuffer = arena.allocate(INITIAL_NAME_BUFFER_SIZE);
+            };
+            MemorySegment fileData = file_data.allocate(arena);
+            MemorySegment contentBuffer = keepContent ? arena.allocate(Runner.SAMPLE_CONTENT_LIMIT) : MemorySegment.NULL;
+
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    var pathName = path.toAbsolutePath().normalize().toString();
+
+                    // Write the file name into the reusable buffer as a null-terminated string. The buffer grows for an
+                    // unusually long name.
+                    byte[] nameBytes = pathName.getBytes(StandardCharsets.UTF_8);
+                    if (nameBytes.length + 1 > state.nameBuffer.byteSize()) {
+                        state.nameBuffer = arena.allocate(nameBytes.length + 1);
+                    }
+                    MemorySegment.copy(nameBytes, 0, state.nameBuffer, JAVA_BYTE, 0, nameBytes.length);
+                    state.nameBuffer.set(JAVA_BYTE, nameBytes.length, (byte) 0);
+
+                    // Invoke the C function
+                    var event = DowncallEvent.start("read_file_into");
+                    int result = readfile_h.read_file_into(state.nameBuffer, Runner.SAMPLE_CONTENT_LIMIT, fileData, contentBuffer, contentBuffer.byteSize());
+                    event.finishRead(result == 0, fileData);
+                    if (result == -1) {
+                        out.printf("Something went wrong while reading the file '%s'%n", pathName);
+                        state.failures++;
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    // Extract the data from the C struct. There is nothing to free.
+                    int lines = file_data.lines$get(fileData);
+                    long bytes = file_data.bytes$get(fileData);
+                    state.files++;
+                    state.lines += lines;
+                    state.bytes += bytes;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            return new ScanSummary(state.files, state.lines, state.bytes, state.failures);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package dgroomes.memory_leak;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Computes the size/lines of all regular files in a directory tree. The implementations differ in how they go about it.
+ */
+public interface DirectoryScanner {
+
+    ScanSummary scan(Path dir) throws IOException;
+
+    /**
+     * Whether the scanner calls {@code read_file} and {@code free_file_data} through a {@link NativeAllocationTracker}.
+     * Only then does the tracker's report say anything about the scanner's native memory.
+     */
+    default boolean tracksNativeAllocations() {
+        return false;
+    }
+
+    /**
+     * Whether the scanner calls the C functions of the readfile library at all. The pure-Java scanners don't, and they
+     * work without the library.
+     */
+    default boolean usesNativeLibrary() {
+        return true;
+    }
+}
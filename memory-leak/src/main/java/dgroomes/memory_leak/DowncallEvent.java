@@ -0,0 +1,106 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * A JDK Flight Recorder event for a call to a C function of the readfile library.
+ * <p>
+ * {@link #start} the event right before the downcall and {@link #finish} it (or {@link #finishRead}) right after, so
+ * that it times only the downcall itself. The result is only described when the event will be committed, so when no
+ * recording is running this costs next to nothing. There are no lambdas, so nothing extra is allocated per call.
+ * <p>
+ * The first call of each C function also pays for linking its downcall handle, and the very first call pays for
+ * loading the library. {@link Runner} links all the handles up front, for the scanners that use the library, so that
+ * those costs don't show up in the events.
+ * <p>
+ * Stack traces are turned off because there are a lot of these events (one or two per file) and the call sites are
+ * few and obvious from the function name.
+ */
+@Name("dgroomes.memory_leak.Downcall")
+@Label("Downcall")
+@Category({"Memory Leak", "Foreign Function"})
+@Description("A call to a C function of the readfile library")
+@StackTrace(false)
+public class DowncallEvent extends Event {
+
+    @Label("Function")
+    final String function;
+
+    @Label("Files")
+    @Description("The number of files that the call read (or freed)")
+    int files;
+
+    @Label("File Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Success")
+    boolean success;
+
+    private DowncallEvent(String function) {
+        this.function = function;
+    }
+
+    /**
+     * Create the event and start timing. Call this right before the downcall.
+     */
+    static DowncallEvent start(String function) {
+        var event = new DowncallEvent(function);
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stop timing and commit the event, if it is enabled and over its threshold. Call this right after a downcall that
+     * doesn't return file data, like {@code free_file_data} or {@code region_reset}.
+     *
+     * @param files the number of files that the call freed
+     */
+    void finish(boolean success, int files) {
+        end();
+        commit(success, files, 0, 0);
+    }
+
+    /**
+     * Stop timing and commit the event, if it is enabled and over its threshold. Call this right after a downcall that
+     * fills in a {@code file_data} struct for one file. The struct is only read when the event is committed.
+     */
+    void finishRead(boolean success, MemorySegment fileData) {
+        end();
+        if (!shouldCommit()) return;
+        if (success) {
+            set(true, 1, file_data.bytes$get(fileData), file_data.lines$get(fileData));
+        }
+        commit();
+    }
+
+    /**
+     * Commit an event that was already ended, if it is enabled and over its threshold. This is for a downcall whose
+     * result is expensive to describe, so it is described after the fact.
+     */
+    void commit(boolean success, int files, long bytes, long lines) {
+        if (!shouldCommit()) return;
+        set(success, files, bytes, lines);
+        commit();
+    }
+
+    private void set(boolean success, int files, long bytes, long lines) {
+        this.success = success;
+        this.files = files;
+        this.bytes = bytes;
+        this.lines = lines;
+    }
+}
@@ -0,0 +1,104 @@
+package dgroomes.memory_leak;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.out;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+
+/**
+ * Walk the directory tree and count the lines of each file in pure Java, by memory-mapping the file.
+ * <p>
+ * There is no C code involved here. Each file is mapped with {@link FileChannel#map(FileChannel.MapMode, long, long, Arena)}
+ * into a {@link MemorySegment} in a confined arena, and the arena unmaps it as soon as the file is counted. The bytes
+ * are never copied into a buffer: the newlines are counted directly from the page cache, eight bytes at a time with a
+ * "SIMD within a register" (SWAR) technique. See {@link #countNewlines(MemorySegment, long, long)}.
+ * <p>
+ * Like the C path, a file is only read up to {@link Runner#SAMPLE_CONTENT_LIMIT}.
+ */
+public class MappedScanner implements DirectoryScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long NEWLINES = ONES * '\n';
+
+    @Override
+    public boolean usesNativeLibrary() {
+        return false;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        var totals = new Object() {
+            long files;
+            long lines;
+            long bytes;
+            long failures;
+        };
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long size = Math.min(channel.size(), Runner.SAMPLE_CONTENT_LIMIT);
+
+                    // A non-empty file has at least one line by definition. An empty file can't be mapped, and
+                    // doesn't need to be.
+                    long lines = 0;
+                    if (size > 0) {
+                        try (Arena arena = Arena.ofConfined()) {
+                            MemorySegment content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+                            lines = 1 + countNewlines(content, 0, size);
+                        }
+                    }
+
+                    totals.files++;
+                    totals.lines += lines;
+                    totals.bytes += size;
+                } catch (IOException e) {
+                    out.printf("Something went wrong while reading the file '%s': %s%n", path, e.getMessage());
+                    totals.failures++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return new ScanSummary(totals.files, totals.lines, totals.bytes, totals.failures);
+    }
+
+    /**
+     * Count the '\n' bytes in a range of a segment.
+     * <p>
+     * This reads a long at a time. XOR-ing the word with a word of all newlines turns each newline byte into a zero
+     * byte. Then, for each byte, adding 0x7F to its low seven bits carries into the high bit if any of the low bits are
+     * set, and OR-ing with the byte itself covers the high bit. So the high bit of each byte ends up set exactly when the
+     * byte is not zero, and the number of newlines is 8 minus the number of high bits that are set. Unlike the common
+     * "has a zero byte" trick, this is exact, because no carry crosses from one byte into the next.
+     */
+    static long countNewlines(MemorySegment segment, long offset, long length) {
+        long count = 0;
+        long end = offset + length;
+        long i = offset;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            long x = segment.get(JAVA_LONG_UNALIGNED, i) ^ NEWLINES;
+            long nonZero = (((x & LOW_BITS) + LOW_BITS) | x) & HIGH_BITS;
+            count += Long.BYTES - Long.bitCount(nonZero);
+        }
+        for (; i < end; i++) {
+            if (segment.get(JAVA_BYTE, i) == '\n') count++;
+        }
+        return count;
+    }
+}
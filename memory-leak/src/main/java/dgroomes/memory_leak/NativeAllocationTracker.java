@@ -0,0 +1,142 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+import dgroomes.memory_leak.bindings.readfile_h;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An instrumented wrapper over {@code readfile_h.read_file} and {@code readfile_h.free_file_data} that keeps account
+ * of the memory that the C side allocated and that hasn't been freed yet.
+ * <p>
+ * The JVM can't see memory allocated by {@code malloc} in a foreign function. So the only way to notice the memory leak
+ * in {@link SequentialScanner} was to watch the process RSS grow. This class notices it directly: every struct
+ * returned by {@link #readFile} is recorded by its address, and {@link #freeFileData} removes it. The count and an
+ * estimate of the bytes (the struct, the copy of the name and the content) are tracked for every struct. The file path
+ * is only recorded for a sample of them (one in {@value #PATH_SAMPLE_INTERVAL}), to keep the per-file cost low.
+ * <p>
+ * Call {@link #beginScan()} before a scan and {@link #endScan()} after it. The report flags any struct that was
+ * allocated during the scan and not freed by the end of it.
+ * <p>
+ * This is safe to use from many threads at once.
+ */
+public class NativeAllocationTracker {
+
+    public static final int PATH_SAMPLE_INTERVAL = 64;
+    private static final int MAX_REPORTED_PATHS = 5;
+
+    /**
+     * @param bytes the estimated number of bytes allocated by the C side for this struct
+     * @param path  the path of the file, or null if this allocation was not sampled
+     * @param scan  the number of the scan that made the allocation
+     */
+    private record Allocation(long bytes, String path, long scan) {
+    }
+
+    /**
+     * The live native allocations after a scan.
+     *
+     * @param liveCount   the number of structs that have not been freed, from all scans so far
+     * @param liveBytes   the estimated bytes of those structs
+     * @param leakedCount the number of structs allocated during this scan that were not freed by the end of it
+     * @param leakedBytes the estimated bytes of those structs
+     * @param leakedPaths a few sampled paths of the leaked structs
+     */
+    public record ScanReport(long liveCount, long liveBytes, long leakedCount, long leakedBytes, List<String> leakedPaths) {
+    }
+
+    private final Map<Long, Allocation> live = new ConcurrentHashMap<>();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong allocations = new AtomicLong();
+    private volatile long scan;
+
+    /**
+     * Call {@code read_file} and record the returned struct, if any.
+     *
+     * @param name the null-terminated file name. Its size is used to estimate the bytes of the name's copy.
+     */
+    public MemorySegment readFile(MemorySegment name, long maxSize) {
+        var event = DowncallEvent.start("read_file");
+        MemorySegment fileData = readfile_h.read_file(name, maxSize);
+        event.finishRead(!fileData.equals(MemorySegment.NULL), fileData);
+        if (fileData.equals(MemorySegment.NULL)) return fileData;
+
+        long bytes = file_data.sizeof() + name.byteSize() + file_data.bytes$get(fileData) + 1;
+        String path = allocations.getAndIncrement() % PATH_SAMPLE_INTERVAL == 0 ? name.getUtf8String(0) : null;
+        live.put(fileData.address(), new Allocation(bytes, path, scan));
+        liveBytes.addAndGet(bytes);
+        return fileData;
+    }
+
+    /**
+     * Call {@code read_file} and tie the lifetime of the returned struct to an arena.
+     * <p>
+     * The returned segment is reinterpreted with the size of the struct and the scope of the arena, and with a cleanup
+     * action that frees the struct. So the struct is freed when the arena is closed, along with every other struct read
+     * into the same arena, and you must not call {@link #freeFileData} for it. As a bonus, the segment can't be used
+     * after the struct is freed, and its accessors are bounds-checked.
+     * <p>
+     * The cleanup runs on the thread that closes the arena. If the arena is shared, this method can be called from many
+     * threads at once.
+     *
+     * @param name  the null-terminated file name
+     * @param arena the arena that owns the returned struct
+     * @return the struct, or {@link MemorySegment#NULL} if the file could not be read
+     */
+    public MemorySegment readFile(MemorySegment name, long maxSize, Arena arena) {
+        MemorySegment fileData = readFile(name, maxSize);
+        if (fileData.equals(MemorySegment.NULL)) return fileData;
+
+        return fileData.reinterpret(file_data.sizeof(), arena, this::freeFileData);
+    }
+
+    /**
+     * Call {@code free_file_data} and forget the struct.
+     *
+     * @throws IllegalStateException if the struct was not returned by {@link #readFile} or was already freed
+     */
+    public void freeFileData(MemorySegment fileData) {
+        Allocation allocation = live.remove(fileData.address());
+        if (allocation == null) {
+            throw new IllegalStateException("The struct at address 0x%x is not a live allocation. Was it freed twice?".formatted(fileData.address()));
+        }
+        liveBytes.addAndGet(-allocation.bytes());
+        var event = DowncallEvent.start("free_file_data");
+        readfile_h.free_file_data(fileData);
+        event.finish(true, 1);
+    }
+
+    public long liveCount() {
+        return live.size();
+    }
+
+    public long liveBytes() {
+        return liveBytes.get();
+    }
+
+    public void beginScan() {
+        scan++;
+    }
+
+    public ScanReport endScan() {
+        long leakedCount = 0;
+        long leakedBytes = 0;
+        var leakedPaths = new ArrayList<String>();
+        for (Allocation allocation : live.values()) {
+            if (allocation.scan() != scan) continue;
+
+            leakedCount++;
+            leakedBytes += allocation.bytes();
+            if (allocation.path() != null && leakedPaths.size() < MAX_REPORTED_PATHS) {
+                leakedPaths.add(allocation.path());
+            }
+        }
+        return new ScanReport(liveCount(), liveBytes(), leakedCount, leakedBytes, List.copyOf(leakedPaths));
+    }
+}
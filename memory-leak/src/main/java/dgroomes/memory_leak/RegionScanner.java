@@ -0,0 +1,88 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+import dgroomes.memory_leak.bindings.readfile_h;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.out;
+
+/**
+ * Walk the directory tree and read one file at a time with the C function {@code read_file_in_region}, which
+ * allocates from a region (a "bump" allocator) instead of with {@code malloc}.
+ * <p>
+ * The scan creates a region and frees it at the end with a single {@code region_free} call, so nothing can leak from
+ * one scan to the next. Along the way, the region is reset after every file, because the scanner only needs a file's
+ * struct until it has added up the lines and bytes. So the region's first block is reused over and over, most files
+ * cost no {@code malloc} or {@code free} at all. The region only ever holds one file's allocations, and those fit in the
+ * first block because the content is capped at {@link Runner#SAMPLE_CONTENT_LIMIT} bytes. So the scan's native memory
+ * stays at the one {@code BLOCK_SIZE} block.
+ */
+public class RegionScanner implements DirectoryScanner {
+
+    private static final long BLOCK_SIZE = 4 * 1_024 * 1_024; // 4 MiB
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        var totals = new Object() {
+            long files;
+            long lines;
+            long bytes;
+            long failures;
+        };
+
+        var createEvent = DowncallEvent.start("region_create");
+        MemorySegment region = readfile_h.region_create(BLOCK_SIZE);
+        createEvent.finish(!region.equals(MemorySegment.NULL), 0);
+        if (region.equals(MemorySegment.NULL)) {
+            throw new IllegalStateException("Something went wrong while creating the region");
+        }
+
+        try (Arena arena = Arena.ofConfined()) {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    var pathName = path.toAbsolutePath().normalize().toString();
+                    MemorySegment fileNameArg = arena.allocateUtf8String(pathName);
+                    var readEvent = DowncallEvent.start("read_file_in_region");
+                    MemorySegment fileData = readfile_h.read_file_in_region(region, fileNameArg, Runner.SAMPLE_CONTENT_LIMIT);
+                    readEvent.finishRead(!fileData.equals(MemorySegment.NULL), fileData);
+                    try {
+                        if (fileData.equals(MemorySegment.NULL)) {
+                            out.printf("Something went wrong while reading the file '%s'%n", pathName);
+                            totals.failures++;
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        int lines = file_data.lines$get(fileData);
+                        long bytes = file_data.bytes$get(fileData);
+                        totals.files++;
+                        totals.lines += lines;
+                        totals.bytes += bytes;
+                        return FileVisitResult.CONTINUE;
+                    } finally {
+                        // There is no free_file_data call. The struct (or whatever a failed read allocated) is freed here.
+                        var resetEvent = DowncallEvent.start("region_reset");
+                        readfile_h.region_reset(region);
+                        resetEvent.finish(true, 1);
+                    }
+                }
+            });
+        } finally {
+            var freeEvent = DowncallEvent.start("region_free");
+            readfile_h.region_free(region);
+            freeEvent.finish(true, 0);
+        }
+
+        return new ScanSummary(totals.files, totals.lines, totals.bytes, totals.failures);
+    }
+}
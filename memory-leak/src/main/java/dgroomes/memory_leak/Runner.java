@@ -1,6 +1,5 @@
 package dgroomes.memory_leak;
 
-import dgroomes.memory_leak.bindings.file_data;
 import dgroomes.memory_leak.bindings.readfile_h;
 
 import java.io.BufferedReader;
@@ -8,12 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.foreign.Arena;
-import java.lang.foreign.MemorySegment;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 
 import static java.lang.System.out;
 
@@ -22,35 +16,73 @@ import static java.lang.System.out;
  */
 public class Runner {
 
-    private static final long SAMPLE_CONTENT_LIMIT = 1_024 * 1_024; // 1 MiB
-    private final Arena arena;
+    static final long SAMPLE_CONTENT_LIMIT = 1_024 * 1_024; // 1 MiB
+    private static final String SCAN_CACHE_FILE = "scan-cache.bin";
+    private final DirectoryScanner scanner;
+    private final NativeAllocationTracker tracker;
     private final BufferedReader reader;
 
-    public Runner(Arena arena, BufferedReader reader) {
-        this.arena = arena;
+    public Runner(DirectoryScanner scanner, NativeAllocationTracker tracker, BufferedReader reader) {
+        this.scanner = scanner;
+        this.tracker = tracker;
         this.reader = reader;
     }
 
-    static class FileSummary {
-        int lines;
-        long bytes;
-    }
-
+    /**
+     * @param args the scan mode: 'sequential' (the default), 'parallel', 'batch', 'caller-allocated', 'mapped', 'streaming', 'arena-bound', 'arena-bound-parallel', 'region' or 'cached'
+     */
     public static void main(String[] args) throws IOException {
         out.printf("This program will compute the size/lines of all regular files in a given directory. But it does it in a cool way because it calls a C library using the Foreign Function and Memory API!%n");
 
+        var mode = args.length == 0 ? "sequential" : args[0];
+
         /*
         Note: the Arena class is super helpful in freeing foreign memory that's allocated by the Java program, but it is
         completely unaware of the memory allocated by the foreign C function.
         */
+        var tracker = new NativeAllocationTracker();
         try (Arena arena = Arena.ofConfined()) {
+            DirectoryScanner scanner = switch (mode) {
+                case "sequential" -> new SequentialScanner(arena, tracker);
+                case "parallel" -> new ParallelScanner(tracker);
+                case "batch" -> new BatchScanner();
+                case "caller-allocated" -> new CallerAllocatedScanner(true);
+                case "mapped" -> new MappedScanner();
+                case "streaming" -> new StreamingScanner();
+                case "arena-bound" -> new ArenaBoundScanner(tracker, false);
+                case "arena-bound-parallel" -> new ArenaBoundScanner(tracker, true);
+                case "region" -> new RegionScanner();
+                case "cached" -> new CachingScanner(tracker, Path.of(SCAN_CACHE_FILE));
+                default -> throw new IllegalArgumentException("Unknown scan mode '%s'. Use 'sequential', 'parallel', 'batch', 'caller-allocated', 'mapped', 'streaming', 'arena-bound', 'arena-bound-parallel', 'region' or 'cached'.".formatted(mode));
+            };
+            out.printf("Using the '%s' scan mode.%n", mode);
+            if (scanner.usesNativeLibrary()) linkDowncalls();
+
             try (var reader = new BufferedReader(new InputStreamReader(System.in))) {
-                var runner = new Runner(arena, reader);
+                var runner = new Runner(scanner, tracker, reader);
                 runner.run();
             }
         }
     }
 
+    /**
+     * Load the readfile library and link the downcall handles of all its functions. Otherwise, the first call of each
+     * function pays for this, which inflates the first scan's timings and its first {@link DowncallEvent}s (the first
+     * one by hundreds of milliseconds). The first calls can still be slower than the rest because of JIT warm-up.
+     * <p>
+     * This is only done for a scanner that uses the library, so that the pure-Java scanners work without it.
+     */
+    private static void linkDowncalls() {
+        readfile_h.read_file$MH();
+        readfile_h.read_file_into$MH();
+        readfile_h.read_files$MH();
+        readfile_h.region_create$MH();
+        readfile_h.region_reset$MH();
+        readfile_h.region_free$MH();
+        readfile_h.read_file_in_region$MH();
+        readfile_h.free_file_data$MH();
+    }
+
     public void run() throws IOException {
         while (true) {
             out.print("Enter a directory (or 'exit'): ");
@@ -70,38 +102,41 @@ public class Runner {
                 continue;
             }
 
-            var fileSummary = new FileSummary();
-            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
-                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
-
-                    var pathName = path.toAbsolutePath().normalize().toString();
-
-                    MemorySegment fileNameArg = arena.allocateUtf8String(pathName);
-
-                    // Invoke the C function
-                    MemorySegment fileData = readfile_h.read_file(fileNameArg, SAMPLE_CONTENT_LIMIT);
-
-                    // Check for success. The function returns a null pointer on failure.
-                    if (fileData.equals(MemorySegment.NULL)) {
-                        out.printf("Something went wrong while reading the file '%s'%n", pathName);
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    // Extract the data from the C struct
-                    fileSummary.lines += file_data.lines$get(fileData);
-                    fileSummary.bytes += file_data.bytes$get(fileData);
+            boolean tracked = scanner.tracksNativeAllocations();
+            if (tracked) tracker.beginScan();
+            var event = new ScanEvent();
+            event.begin();
+            long start = System.nanoTime();
+            var summary = scanner.scan(dir.toPath());
+            long elapsedNanos = System.nanoTime() - start;
+            event.end();
+            double elapsedSeconds = elapsedNanos / 1e9;
+            double filesPerSecond = summary.files() / elapsedSeconds;
+            double megabytesPerSecond = summary.bytes() / 1e6 / elapsedSeconds;
+
+            if (event.shouldCommit()) {
+                event.scanner = scanner.getClass().getSimpleName();
+                event.directory = dir.toString();
+                event.files = summary.files();
+                event.failures = summary.failures();
+                event.lines = summary.lines();
+                event.bytes = summary.bytes();
+                event.filesPerSecond = filesPerSecond;
+                event.megabytesPerSecond = megabytesPerSecond;
+                event.commit();
+            }
 
-                    // Now that we've extracted the data we need from the C struct, we need to free the memory related
-                    // to the struct. But, this line is purposely commented out to demonstrate the memory leak.
-                    // readfile_h.free_file_data(fileData);
+            out.printf("Found %,d lines and %,d bytes in the files in the directory '%s'%n", summary.lines(), summary.bytes(), dir);
+            out.printf("Scanned %,d files in %,d ms (%,.0f files/s, %,.1f MB/s)%n", summary.files(), elapsedNanos / 1_000_000, filesPerSecond, megabytesPerSecond);
 
-                    return FileVisitResult.CONTINUE;
+            // The other scanners don't allocate through the tracker, so its report would be a misleading zero for them.
+            if (tracked) {
+                var report = tracker.endScan();
+                out.printf("Native memory allocated by read_file and not yet freed: %,d structs, %,d bytes%n", report.liveCount(), report.liveBytes());
+                if (report.leakedCount() > 0) {
+                    out.printf("LEAK: %,d structs (%,d bytes) allocated during this scan were not freed. Some of their files: %s%n", report.leakedCount(), report.leakedBytes(), report.leakedPaths());
                 }
-            });
-
-            out.printf("Found %,d lines and %,d bytes in the files in the directory '%s'%n", fileSummary.lines, fileSummary.bytes, dir);
+            }
 
             // Normally, you would just let the JVM do garbage collection on its own, but we need to factor out the
             // variability of JVM memory usage so that it's more clear that the C function is leaking memory.
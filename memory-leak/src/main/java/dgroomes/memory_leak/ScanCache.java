@@ -0,0 +1,215 @@
+package dgroomes.memory_leak;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * A persistent cache of the line and byte counts of files, stored off-heap in a memory-mapped file.
+ * <p>
+ * The cache is a hash table with open addressing (linear probing), keyed by the file's device and inode numbers. Each
+ * entry also records the file's modification time and size when it was counted. If either has changed, the entry is
+ * stale and the file must be counted again. The table lives entirely in the mapped file, so it survives from one scan
+ * to the next and from one run of the program to the next, and looking up an entry doesn't allocate anything.
+ * <p>
+ * The file is a header followed by the slots. The header is the {@link #MAGIC} number, the capacity (a power of two)
+ * and the number of entries. A slot is empty when its inode is 0, which is never a valid inode number. When the table is
+ * half full, it is rehashed into a new file with double the capacity, which then replaces the old file.
+ * <p>
+ * Entries for files that were deleted are never removed. To start over, delete the cache file.
+ * <p>
+ * This is not thread-safe, and only one process should use a cache file at a time.
+ */
+public class ScanCache implements AutoCloseable {
+
+    private static final long MAGIC = 0x5343414E43414331L; // "SCANCAC1"
+    private static final long INITIAL_CAPACITY = 1 << 16;
+    private static final long HEADER_SIZE = 64;
+    private static final long MAGIC_OFFSET = 0;
+    private static final long CAPACITY_OFFSET = 8;
+    private static final long COUNT_OFFSET = 16;
+
+    private static final StructLayout SLOT = MemoryLayout.structLayout(
+            JAVA_LONG.withName("dev"),
+            JAVA_LONG.withName("inode"),
+            JAVA_LONG.withName("mtime"),
+            JAVA_LONG.withName("size"),
+            JAVA_LONG.withName("lines"),
+            JAVA_LONG.withName("bytes"));
+    private static final long DEV = SLOT.byteOffset(groupElement("dev"));
+    private static final long INODE = SLOT.byteOffset(groupElement("inode"));
+    private static final long MTIME = SLOT.byteOffset(groupElement("mtime"));
+    private static final long SIZE = SLOT.byteOffset(groupElement("size"));
+    private static final long LINES = SLOT.byteOffset(groupElement("lines"));
+    private static final long BYTES = SLOT.byteOffset(groupElement("bytes"));
+
+    private final Path file;
+    private Arena arena;
+    private MemorySegment segment;
+    private long capacity;
+    private long count;
+
+    private ScanCache(Path file, Arena arena, MemorySegment segment) {
+        this.file = file;
+        this.arena = arena;
+        this.segment = segment;
+        this.capacity = segment.get(JAVA_LONG, CAPACITY_OFFSET);
+        this.count = segment.get(JAVA_LONG, COUNT_OFFSET);
+    }
+
+    /**
+     * Open the cache file, or create it if it doesn't exist.
+     */
+    public static ScanCache open(Path file) throws IOException {
+        if (Files.notExists(file)) {
+            create(file, INITIAL_CAPACITY).close();
+        }
+
+        Arena arena = Arena.ofConfined();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size(), arena);
+            if (segment.byteSize() < HEADER_SIZE
+                || segment.get(JAVA_LONG, MAGIC_OFFSET) != MAGIC
+                || segment.byteSize() != HEADER_SIZE + segment.get(JAVA_LONG, CAPACITY_OFFSET) * SLOT.byteSize()) {
+                throw new IOException("The file '%s' is not a valid scan cache. Delete it to start over.".formatted(file));
+            }
+            return new ScanCache(file, arena, segment);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create an empty cache file and map it.
+     */
+    private static ScanCache create(Path file, long capacity) throws IOException {
+        Arena arena = Arena.ofConfined();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Mapping a region past the end of the file extends the file. The new bytes are zeros, so every slot is empty.
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * SLOT.byteSize(), arena);
+            segment.set(JAVA_LONG, MAGIC_OFFSET, MAGIC);
+            segment.set(JAVA_LONG, CAPACITY_OFFSET, capacity);
+            segment.set(JAVA_LONG, COUNT_OFFSET, 0);
+            return new ScanCache(file, arena, segment);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Find the entry for a file, if it is up-to-date.
+     *
+     * @return the entry's slot, to read with {@link #lines(long)} and {@link #bytes(long)}, or -1 if there is no entry
+     * for the file or the file has been modified since
+     */
+    public long slotOf(long dev, long inode, long mtime, long size) {
+        long offset = find(dev, inode);
+        if (segment.get(JAVA_LONG, offset + INODE) == 0) return -1;
+        if (segment.get(JAVA_LONG, offset + MTIME) != mtime || segment.get(JAVA_LONG, offset + SIZE) != size) return -1;
+        return offset;
+    }
+
+    public long lines(long slot) {
+        return segment.get(JAVA_LONG, slot + LINES);
+    }
+
+    public long bytes(long slot) {
+        return segment.get(JAVA_LONG, slot + BYTES);
+    }
+
+    /**
+     * Add or replace the entry for a file.
+     */
+    public void put(long dev, long inode, long mtime, long size, long lines, long bytes) throws IOException {
+        if (inode == 0) throw new IllegalArgumentException("The inode number must not be 0");
+
+        long offset = find(dev, inode);
+        if (segment.get(JAVA_LONG, offset + INODE) == 0) {
+            if (count + 1 > capacity / 2) {
+                grow();
+                offset = find(dev, inode);
+            }
+            segment.set(JAVA_LONG, offset + DEV, dev);
+            segment.set(JAVA_LONG, offset + INODE, inode);
+            count++;
+            segment.set(JAVA_LONG, COUNT_OFFSET, count);
+        }
+        segment.set(JAVA_LONG, offset + MTIME, mtime);
+        segment.set(JAVA_LONG, offset + SIZE, size);
+        segment.set(JAVA_LONG, offset + LINES, lines);
+        segment.set(JAVA_LONG, offset + BYTES, bytes);
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Find the offset of the slot for the key: either the slot that holds it or the empty slot where it would go.
+     */
+    private long find(long dev, long inode) {
+        long mask = capacity - 1;
+        for (long i = spread(dev * 31 + inode) & mask; ; i = (i + 1) & mask) {
+            long offset = HEADER_SIZE + i * SLOT.byteSize();
+            long slotInode = segment.get(JAVA_LONG, offset + INODE);
+            if (slotInode == 0 || (slotInode == inode && segment.get(JAVA_LONG, offset + DEV) == dev)) return offset;
+        }
+    }
+
+    /**
+     * Rehash the entries into a new file with double the capacity, and replace the old file with it.
+     */
+    private void grow() throws IOException {
+        Path newFile = file.resolveSibling(file.getFileName() + ".tmp");
+        ScanCache bigger = create(newFile, capacity * 2);
+        for (long i = 0; i < capacity; i++) {
+            long offset = HEADER_SIZE + i * SLOT.byteSize();
+            long inode = segment.get(JAVA_LONG, offset + INODE);
+            if (inode == 0) continue;
+
+            bigger.put(segment.get(JAVA_LONG, offset + DEV), inode, segment.get(JAVA_LONG, offset + MTIME),
+                    segment.get(JAVA_LONG, offset + SIZE), segment.get(JAVA_LONG, offset + LINES), segment.get(JAVA_LONG, offset + BYTES));
+        }
+
+        // The new mapping stays valid after the file is moved.
+        Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        arena.close();
+        arena = bigger.arena;
+        segment = bigger.segment;
+        capacity = bigger.capacity;
+        count = bigger.count;
+    }
+
+    /**
+     * The finalization step of MurmurHash3's 64-bit hash. This spreads the bits of the key so that nearby inode numbers
+     * don't land in nearby slots.
+     */
+    private static long spread(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Unmap the cache file. The entries were written to the file all along, through the mapping.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
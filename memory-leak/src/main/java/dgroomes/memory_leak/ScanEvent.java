@@ -0,0 +1,49 @@
+package dgroomes.memory_leak;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for a scan of a directory tree, with its totals and its throughput.
+ * <p>
+ * The time of a scan that is not covered by the {@link DowncallEvent}s inside it is spent in Java: walking the tree,
+ * allocating the file name arguments, and so on.
+ */
+@Name("dgroomes.memory_leak.Scan")
+@Label("Scan")
+@Category({"Memory Leak", "Foreign Function"})
+@Description("A scan of a directory tree")
+@StackTrace(false)
+public class ScanEvent extends Event {
+
+    @Label("Scanner")
+    String scanner;
+
+    @Label("Directory")
+    String directory;
+
+    @Label("Files")
+    long files;
+
+    @Label("Failures")
+    long failures;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("File Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Files per Second")
+    double filesPerSecond;
+
+    @Label("MB per Second")
+    @Description("The throughput in megabytes (10^6 bytes) of file content per second")
+    double megabytesPerSecond;
+}
@@ -0,0 +1,12 @@
+package dgroomes.memory_leak;
+
+/**
+ * The totals from scanning the regular files in a directory tree.
+ *
+ * @param files    the number of files that were read
+ * @param lines    the total number of lines in those files
+ * @param bytes    the total number of bytes read from those files
+ * @param failures the number of files that could not be read
+ */
+public record ScanSummary(long files, long lines, long bytes, long failures) {
+}
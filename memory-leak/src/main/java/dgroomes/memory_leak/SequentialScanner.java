@@ -0,0 +1,83 @@
+package dgroomes.memory_leak;
+
+import dgroomes.memory_leak.bindings.file_data;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.out;
+
+/**
+ * Walk the directory tree and read one file at a time with the C function {@code read_file}.
+ * <p>
+ * This is the scanner with the memory leak. See the README.
+ */
+public class SequentialScanner implements DirectoryScanner {
+
+    private final Arena arena;
+    private final NativeAllocationTracker tracker;
+
+    /**
+     * @param arena   the arena to allocate the file name arguments in
+     * @param tracker the tracker to call the C functions through
+     */
+    public SequentialScanner(Arena arena, NativeAllocationTracker tracker) {
+        this.arena = arena;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public boolean tracksNativeAllocations() {
+        return true;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        var totals = new Object() {
+            long files;
+            long lines;
+            long bytes;
+            long failures;
+        };
+
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                var pathName = path.toAbsolutePath().normalize().toString();
+
+                MemorySegment fileNameArg = arena.allocateUtf8String(pathName);
+
+                // Invoke the C function
+                MemorySegment fileData = tracker.readFile(fileNameArg, Runner.SAMPLE_CONTENT_LIMIT);
+
+                // Check for success. The function returns a null pointer on failure.
+                if (fileData.equals(MemorySegment.NULL)) {
+                    out.printf("Something went wrong while reading the file '%s'%n", pathName);
+                    totals.failures++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                // Extract the data from the C struct
+                totals.files++;
+                totals.lines += file_data.lines$get(fileData);
+                totals.bytes += file_data.bytes$get(fileData);
+
+                // Now that we've extracted the data we need from the C struct, we need to free the memory related
+                // to the struct. But, this line is purposely commented out to demonstrate the memory leak.
+                // tracker.freeFileData(fileData);
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return new ScanSummary(totals.files, totals.lines, totals.bytes, totals.failures);
+    }
+}
@@ -0,0 +1,77 @@
+package dgroomes.memory_leak;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.out;
+
+/**
+ * Walk the directory tree and count the lines and bytes of each whole file, no matter how big it is.
+ * <p>
+ * The other scanners only read a file up to {@link Runner#SAMPLE_CONTENT_LIMIT}, so the totals are wrong for bigger
+ * files. This scanner streams every file, start to finish, through one fixed-size buffer. The buffer is allocated
+ * off-heap once per scan and the file channel reads directly into it (through a {@link ByteBuffer} view of the
+ * segment), so memory usage is flat no matter the file sizes. The newlines are counted with the same SWAR loop as
+ * {@link MappedScanner}.
+ */
+public class StreamingScanner implements DirectoryScanner {
+
+    private static final int BUFFER_SIZE = 1_024 * 1_024; // 1 MiB
+
+    @Override
+    public boolean usesNativeLibrary() {
+        return false;
+    }
+
+    @Override
+    public ScanSummary scan(Path dir) throws IOException {
+        var totals = new Object() {
+            long files;
+            long lines;
+            long bytes;
+            long failures;
+        };
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment buffer = arena.allocate(BUFFER_SIZE, Long.BYTES);
+            ByteBuffer byteBuffer = buffer.asByteBuffer();
+
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        long bytes = 0;
+                        long newlines = 0;
+                        int n;
+                        while ((n = channel.read(byteBuffer.clear())) != -1) {
+                            newlines += MappedScanner.countNewlines(buffer, 0, n);
+                            bytes += n;
+                        }
+
+                        // A non-empty file has at least one line by definition.
+                        totals.files++;
+                        totals.lines += bytes == 0 ? 0 : 1 + newlines;
+                        totals.bytes += bytes;
+                    } catch (IOException e) {
+                        out.printf("Something went wrong while reading the file '%s': %s%n", path, e.getMessage());
+                        totals.failures++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return new ScanSummary(totals.files, totals.lines, totals.bytes, totals.failures);
+    }
+}
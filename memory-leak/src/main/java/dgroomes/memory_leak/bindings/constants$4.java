@@ -0,0 +1,43 @@
+// Written by hand in the style of the jextract output. jextract would number these classes differently.
+
+package dgroomes.memory_leak.bindings;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.lang.foreign.*;
+import static java.lang.foreign.ValueLayout.*;
+final class constants$4 {
+
+    // Suppresses default constructor, ensuring non-instantiability.
+    private constants$4() {}
+    static final FunctionDescriptor const$0 = FunctionDescriptor.of(RuntimeHelper.POINTER,
+        JAVA_LONG
+    );
+    static final MethodHandle const$1 = RuntimeHelper.downcallHandle(
+        "region_create",
+        constants$4.const$0
+    );
+    static final FunctionDescriptor const$2 = FunctionDescriptor.ofVoid(
+        RuntimeHelper.POINTER
+    );
+    static final MethodHandle const$3 = RuntimeHelper.downcallHandle(
+        "region_reset",
+        constants$4.const$2
+    );
+    static final MethodHandle const$4 = RuntimeHelper.downcallHandle(
+        "region_free",
+        constants$4.const$2
+    );
+    static final FunctionDescriptor const$5 = FunctionDescriptor.of(RuntimeHelper.POINTER,
+        RuntimeHelper.POINTER,
+        RuntimeHelper.POINTER,
+        JAVA_LONG
+    );
+    static final MethodHandle const$6 = RuntimeHelper.downcallHandle(
+        "read_file_in_region",
+        constants$4.const$5
+    );
+}
+
+
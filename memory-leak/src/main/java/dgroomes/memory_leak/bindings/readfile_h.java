@@ -1,4 +1,4 @@
-// Generated by jextract
+// Generated by jextract. The read_file_into, read_files and region_* functions were added by hand, in the same style.
 
 package dgroomes.memory_leak.bindings;
 
@@ -33,6 +33,102 @@ public class readfile_h  {
             throw new AssertionError("should not reach here", ex$);
         }
     }
+    public static MethodHandle read_file_into$MH() {
+        return RuntimeHelper.requireNonNull(constants$3.const$1,"read_file_into");
+    }
+    /**
+     * {@snippet :
+     * int read_file_into(char* name, long max_size, struct file_data* f, char* buffer, long buffer_size);
+     * }
+     */
+    public static int read_file_into(MemorySegment name, long max_size, MemorySegment f, MemorySegment buffer, long buffer_size) {
+        var mh$ = read_file_into$MH();
+        try {
+            return (int)mh$.invokeExact(name, max_size, f, buffer, buffer_size);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
+    public static MethodHandle read_files$MH() {
+        return RuntimeHelper.requireNonNull(constants$2.const$1,"read_files");
+    }
+    /**
+     * {@snippet :
+     * int read_files(char** names, int count, long max_size, struct file_data* results);
+     * }
+     */
+    public static int read_files(MemorySegment names, int count, long max_size, MemorySegment results) {
+        var mh$ = read_files$MH();
+        try {
+            return (int)mh$.invokeExact(names, count, max_size, results);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
+    public static MethodHandle region_create$MH() {
+        return RuntimeHelper.requireNonNull(constants$4.const$1,"region_create");
+    }
+    /**
+     * {@snippet :
+     * struct region* region_create(long block_size);
+     * }
+     */
+    public static MemorySegment region_create(long block_size) {
+        var mh$ = region_create$MH();
+        try {
+            return (java.lang.foreign.MemorySegment)mh$.invokeExact(block_size);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
+    public static MethodHandle region_reset$MH() {
+        return RuntimeHelper.requireNonNull(constants$4.const$3,"region_reset");
+    }
+    /**
+     * {@snippet :
+     * void region_reset(struct region* r);
+     * }
+     */
+    public static void region_reset(MemorySegment r) {
+        var mh$ = region_reset$MH();
+        try {
+            mh$.invokeExact(r);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
+    public static MethodHandle region_free$MH() {
+        return RuntimeHelper.requireNonNull(constants$4.const$4,"region_free");
+    }
+    /**
+     * {@snippet :
+     * void region_free(struct region* r);
+     * }
+     */
+    public static void region_free(MemorySegment r) {
+        var mh$ = region_free$MH();
+        try {
+            mh$.invokeExact(r);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
+    public static MethodHandle read_file_in_region$MH() {
+        return RuntimeHelper.requireNonNull(constants$4.const$6,"read_file_in_region");
+    }
+    /**
+     * {@snippet :
+     * struct file_data* read_file_in_region(struct region* r, char* name, long max_size);
+     * }
+     */
+    public static MemorySegment read_file_in_region(MemorySegment r, MemorySegment name, long max_size) {
+        var mh$ = read_file_in_region$MH();
+        try {
+            return (java.lang.foreign.MemorySegment)mh$.invokeExact(r, name, max_size);
+        } catch (Throwable ex$) {
+            throw new AssertionError("should not reach here", ex$);
+        }
+    }
     public static MethodHandle free_file_data$MH() {
         return RuntimeHelper.requireNonNull(constants$1.const$1,"free_file_data");
     }
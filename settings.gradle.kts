@@ -23,5 +23,6 @@ rootProject.name = "java-foreign-function-and-memory-api-playground"
 // clones this repo and opens it in Intellij, all the subprojects are automatically identified by Intellij and indexed.
 // You get code completion and project navigation out-of-the-box. Pretty slick!
 include("heterogeneous-foreign-memory")
+include("heterogeneous-foreign-memory:jmh")
 includeBuild("jextract")
 includeBuild("memory-leak")